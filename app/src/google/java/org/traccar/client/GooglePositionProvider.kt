@@ -32,6 +32,9 @@ class GooglePositionProvider(context: Context, listener: PositionListener) : Pos
         val locationRequest = LocationRequest()
         locationRequest.priority = getPriority(preferences.getString(MainFragment.KEY_ACCURACY, "medium"))
         locationRequest.interval = if (distance > 0 || angle > 0) MINIMUM_INTERVAL else interval
+        if (batchInterval > locationRequest.interval) {
+            locationRequest.maxWaitTime = batchInterval
+        }
         fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper())
     }
 
@@ -50,9 +53,7 @@ class GooglePositionProvider(context: Context, listener: PositionListener) : Pos
 
     private val locationCallback: LocationCallback = object : LocationCallback() {
         override fun onLocationResult(locationResult: LocationResult) {
-            for (location in locationResult.locations) {
-                processLocation(location)
-            }
+            processLocations(locationResult.locations)
         }
     }
 
@@ -22,8 +22,11 @@ import android.location.LocationListener
 import android.location.LocationManager
 import android.os.Bundle
 import android.os.Looper
+import androidx.core.location.LocationListenerCompat
+import androidx.core.location.LocationManagerCompat
+import androidx.core.location.LocationRequestCompat
 
-class AndroidPositionProvider(context: Context, listener: PositionListener) : PositionProvider(context, listener), LocationListener {
+class AndroidPositionProvider(context: Context, listener: PositionListener) : PositionProvider(context, listener), LocationListenerCompat {
 
     private val locationManager = context.getSystemService(Context.LOCATION_SERVICE) as LocationManager
     private val provider = getProvider(preferences.getString(MainFragment.KEY_ACCURACY, "medium"))
@@ -31,15 +34,22 @@ class AndroidPositionProvider(context: Context, listener: PositionListener) : Po
     @SuppressLint("MissingPermission")
     override fun startUpdates() {
         try {
-            locationManager.requestLocationUpdates(
-                provider, if (distance > 0 || angle > 0) MINIMUM_INTERVAL else interval, 0f, this)
+            val updateInterval = if (distance > 0 || angle > 0) MINIMUM_INTERVAL else interval
+            if (batchInterval > updateInterval) {
+                val request = LocationRequestCompat.Builder(updateInterval)
+                    .setMaxUpdateDelayMillis(batchInterval)
+                    .build()
+                LocationManagerCompat.requestLocationUpdates(locationManager, provider, request, this, Looper.getMainLooper())
+            } else {
+                locationManager.requestLocationUpdates(provider, updateInterval, 0f, this)
+            }
         } catch (e: RuntimeException) {
             listener.onPositionError(e)
         }
     }
 
     override fun stopUpdates() {
-        locationManager.removeUpdates(this)
+        LocationManagerCompat.removeUpdates(locationManager, this)
     }
 
     @Suppress("DEPRECATION", "MissingPermission")
@@ -68,7 +78,11 @@ class AndroidPositionProvider(context: Context, listener: PositionListener) : Po
         processLocation(location)
     }
 
-    override fun onStatusChanged(provider: String, status: Int, extras: Bundle) {}
+    override fun onLocationChanged(locations: MutableList<Location>) {
+        processLocations(locations)
+    }
+
+    override fun onStatusChanged(provider: String, status: Int, extras: Bundle?) {}
     override fun onProviderEnabled(provider: String) {}
     override fun onProviderDisabled(provider: String) {}
 
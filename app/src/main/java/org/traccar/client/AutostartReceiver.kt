@@ -23,6 +23,10 @@ class AutostartReceiver : WakefulBroadcastReceiver() {
 
     @Suppress("UnsafeProtectedBroadcastReceiver")
     override fun onReceive(context: Context, intent: Intent) {
+        if (intent.action == ServiceWatchdog.ACTION_WATCHDOG) {
+            ServiceWatchdog.onAlarm(context)
+            return
+        }
         val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
         if (sharedPreferences.getBoolean(MainFragment.KEY_STATUS, false)) {
             startWakefulForegroundService(context, Intent(context, TrackingService::class.java))
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.BatteryManager
+import androidx.core.content.ContextCompat
+
+/**
+ * Keeps the latest battery state in memory so that position updates don't have to query
+ * the sticky ACTION_BATTERY_CHANGED intent (a binder call) for every accepted location.
+ */
+object BatteryMonitor {
+
+    @Volatile
+    private var cached: BatteryStatus? = null
+    private var references = 0
+
+    private val receiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            cached = parse(intent)
+        }
+    }
+
+    @Synchronized
+    fun start(context: Context) {
+        if (references++ == 0) {
+            val intent = ContextCompat.registerReceiver(
+                context.applicationContext, receiver,
+                IntentFilter(Intent.ACTION_BATTERY_CHANGED), ContextCompat.RECEIVER_NOT_EXPORTED)
+            if (intent != null) {
+                cached = parse(intent)
+            }
+        }
+    }
+
+    @Synchronized
+    fun stop(context: Context) {
+        if (references > 0 && --references == 0) {
+            context.applicationContext.unregisterReceiver(receiver)
+            cached = null
+        }
+    }
+
+    fun getStatus(context: Context): BatteryStatus {
+        cached?.let { return it }
+        val intent = context.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+        return if (intent != null) parse(intent) else BatteryStatus()
+    }
+
+    private fun parse(intent: Intent): BatteryStatus {
+        val level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0)
+        val scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 1)
+        val status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1)
+        return BatteryStatus(
+            level = level * 100.0 / scale,
+            charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL,
+        )
+    }
+
+}
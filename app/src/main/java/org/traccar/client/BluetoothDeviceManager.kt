@@ -1,13 +1,85 @@
 package org.traccar.client
 
+import android.content.Context
+import android.content.SharedPreferences
+import java.util.UUID
+
+/**
+ * Remembers the selected controller and the GATT layout it was last connected with, so the
+ * timed service can reconnect after a process restart without a manual pick.
+ */
 object BluetoothDeviceManager {
+
+    private const val PREFERENCES = "MySharedPref"
+    private const val KEY_ADDRESS = "lastConnectedDeviceAddress"
+    private const val KEY_SERVICE = "lastConnectedDeviceService"
+    private const val KEY_MTU = "lastConnectedDeviceMtu"
+
+    class Profile(val service: UUID, val mtu: Int)
+
+    private var preferences: SharedPreferences? = null
+
+    @Volatile
     private var lastDeviceAddress: String? = null
 
-    fun setLastDeviceAddress(address: String) {
-        lastDeviceAddress = address
+    @Volatile
+    private var profile: Profile? = null
+
+    @JvmStatic
+    @Synchronized
+    fun init(context: Context) {
+        if (preferences == null) {
+            val preferences = context.applicationContext.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+            this.preferences = preferences
+            lastDeviceAddress = preferences.getString(KEY_ADDRESS, null)
+            val service = preferences.getString(KEY_SERVICE, null)
+            if (service != null) {
+                profile = Profile(UUID.fromString(service), preferences.getInt(KEY_MTU, 0))
+            }
+        }
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun setLastDeviceAddress(context: Context, address: String) {
+        init(context)
+        if (address != lastDeviceAddress) {
+            lastDeviceAddress = address
+            profile = null
+            preferences?.edit()
+                ?.putString(KEY_ADDRESS, address)
+                ?.remove(KEY_SERVICE)
+                ?.remove(KEY_MTU)
+                ?.apply()
+        }
     }
 
     @JvmStatic
     fun getLastDeviceAddress(): String? = lastDeviceAddress
 
-}
\ No newline at end of file
+    /**
+     * GATT layout of the last device, or null if it was never connected or a different device is requested.
+     */
+    @JvmStatic
+    fun getProfile(address: String): Profile? {
+        return if (address == lastDeviceAddress) profile else null
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun saveProfile(address: String, service: UUID, mtu: Int) {
+        if (address != lastDeviceAddress) {
+            return
+        }
+        val current = profile
+        if (current != null && current.service == service && current.mtu == mtu) {
+            return
+        }
+        profile = Profile(service, mtu)
+        preferences?.edit()
+            ?.putString(KEY_SERVICE, service.toString())
+            ?.putInt(KEY_MTU, mtu)
+            ?.apply()
+    }
+
+}
@@ -27,6 +27,8 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
     private static final String TAG = "BluetoothTimedService";
     private static final String START_SEQUENCE = ":";
     private static final int REQUIRED_LENGTH = 235;
+    private static final int REQUIRED_BYTE_OFFSET = 127;
+    private static final int REQUIRED_BYTES_OFFSET = 97;
     private static final long SCHEDULE_DELAY_MINUTES = 1;
 
     private String deviceAddress;
@@ -42,8 +44,9 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
     @Override
     public void onCreate() {
         super.onCreate();
-        Log.v(TAG, "onCreate called");
+        if (Logger.ENABLED) Log.v(TAG, "onCreate called");
         acquireWakeLock();
+        BluetoothDeviceManager.init(this); // restarted as sticky service without MainActivity
         Intent intent = new Intent(this, SerialService.class);
         bindService(intent, this, Context.BIND_AUTO_CREATE);
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
@@ -52,7 +55,7 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        Log.v(TAG, "onStartCommand called");
+        if (Logger.ENABLED) Log.v(TAG, "onStartCommand called");
         return START_STICKY;
     }
 
@@ -63,7 +66,7 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
 
     @Override
     public void onDestroy() {
-        Log.v(TAG, "onDestroy called");
+        if (Logger.ENABLED) Log.v(TAG, "onDestroy called");
         unregisterReceiver(bondStateReceiver);
         super.onDestroy();
         if (scheduler != null && !scheduler.isShutdown()) {
@@ -93,12 +96,12 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
 
     private void scheduledConnectAndFetchData() {
         try {
-            Log.v(TAG, "scheduledConnectAndFetchData called");
+            if (Logger.ENABLED) Log.v(TAG, "scheduledConnectAndFetchData called");
             dataProcessedThisSchedule = false;
             String currentAddress = BluetoothDeviceManager.getLastDeviceAddress();
             if (!deviceAddress.equals(currentAddress)) {
                 deviceAddress = currentAddress;
-                Log.v(TAG, "Device address updated to: " + deviceAddress);
+                if (Logger.ENABLED) Log.v(TAG, "Device address updated to: " + deviceAddress);
             }
             connect();
             scheduleDisconnectTimeout();
@@ -109,16 +112,16 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
     }
 
     private void connect() {
-        Log.v(TAG, "Attempting to connect...");
+        if (Logger.ENABLED) Log.v(TAG, "Attempting to connect...");
         try {
             BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
             BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
-            Log.v(TAG, "Creating SerialSocket...");
+            if (Logger.ENABLED) Log.v(TAG, "Creating SerialSocket...");
             SerialSocket socket = new SerialSocket(getApplicationContext(), device);
-            Log.v(TAG, "Connecting to service...");
+            if (Logger.ENABLED) Log.v(TAG, "Connecting to service...");
             if (serialService != null) {
                 serialService.connect(socket);
-                Log.v(TAG, "Connection request sent to SerialService");
+                if (Logger.ENABLED) Log.v(TAG, "Connection request sent to SerialService");
             } else {
                 Log.e(TAG, "SerialService is null");
             }
@@ -129,7 +132,7 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
     }
 
     private void disconnect() {
-        Log.v(TAG, "Disconnecting from device: " + deviceAddress);
+        if (Logger.ENABLED) Log.v(TAG, "Disconnecting from device: " + deviceAddress);
         if (serialService != null) {
             serialService.disconnect();
         }
@@ -146,23 +149,22 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
 
     private void disconnectIfNotProcessed() {
         if (!dataProcessedThisSchedule) {
-            Log.v(TAG, "Disconnecting due to timeout or no data processed");
+            if (Logger.ENABLED) Log.v(TAG, "Disconnecting due to timeout or no data processed");
             disconnect();
         }
     }
 
     private void receive(ArrayDeque<byte[]> datas) {
         for (byte[] data : datas) {
-            String asciiString = new String(data);
-            Log.v(TAG, "Received data: " + asciiString);
-            accumulatedData.append(asciiString);
+            if (Logger.ENABLED) Log.v(TAG, "Received data: " + new String(data));
+            TextUtil.appendAscii(accumulatedData, data);
         }
         processAccumulatedData();
     }
 
     @Override
     public void onServiceConnected(ComponentName name, IBinder binder) {
-        Log.v(TAG, "SerialService connected");
+        if (Logger.ENABLED) Log.v(TAG, "SerialService connected");
         serialService = ((SerialService.SerialBinder) binder).getService();
         serialService.attach(this);
         bound = true;
@@ -170,10 +172,10 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
     }
 
     private void initializeConnection() {
-        Log.v(TAG, "initializeConnection called");
+        if (Logger.ENABLED) Log.v(TAG, "initializeConnection called");
         deviceAddress = BluetoothDeviceManager.getLastDeviceAddress();
         if (deviceAddress != null && !deviceAddress.isEmpty()) {
-            Log.v(TAG, "Initializing connection with device: " + deviceAddress);
+            if (Logger.ENABLED) Log.v(TAG, "Initializing connection with device: " + deviceAddress);
             if (scheduler == null || scheduler.isShutdown()) {
                 scheduler = Executors.newSingleThreadScheduledExecutor();
             }
@@ -186,7 +188,7 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
 
     @Override
     public void onServiceDisconnected(ComponentName name) {
-        Log.v(TAG, "SerialService disconnected");
+        if (Logger.ENABLED) Log.v(TAG, "SerialService disconnected");
         serialService = null;
         bound = false;
     }
@@ -196,8 +198,8 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
         while (accumulatedData.length() >= REQUIRED_LENGTH) {
             int startIndex = accumulatedData.indexOf(START_SEQUENCE);
             if (startIndex >= 0 && accumulatedData.length() >= startIndex + REQUIRED_LENGTH) {
-                String validMessage = accumulatedData.substring(startIndex, startIndex + REQUIRED_LENGTH);
-                processValidMessage(validMessage);
+                processValidMessage(accumulatedData, startIndex);
+                Metrics.bleFrames.increment();
                 dataProcessedThisSchedule = true;
                 accumulatedData.delete(0, startIndex + REQUIRED_LENGTH);
             } else if (startIndex == -1) {
@@ -211,7 +213,7 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
     }
       @Override
     public void onSerialConnect() {
-        Log.v(TAG, "Serial connection established");
+        if (Logger.ENABLED) Log.v(TAG, "Serial connection established");
     }
 
     @Override
@@ -222,8 +224,7 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
 
     @Override
     public void onSerialRead(byte[] data) {
-        String asciiString = new String(data);
-        Log.v(TAG, "Data received: " + asciiString);
+        if (Logger.ENABLED) Log.v(TAG, "Data received: " + new String(data));
         ArrayDeque<byte[]> datas = new ArrayDeque<>();
         datas.add(data);
         receive(datas);
@@ -234,12 +235,12 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
         receive(datas);
     }
 
-       private void processValidMessage(String message) {
-        byte requiredByte = getRequiredByte(message);
-        int requiredBytes = getRequiredBytes(message);
-        Log.v(TAG, "Valid message: " + message);
-        Log.v(TAG, "Required byte: " + requiredByte);
-        Log.v(TAG, "Required bytes: " + requiredBytes);
+    private void processValidMessage(CharSequence data, int start) {
+        byte requiredByte = (byte) getRequiredHex(data, start + REQUIRED_BYTE_OFFSET, 2); //V2 offset 155
+        int requiredBytes = getRequiredHex(data, start + REQUIRED_BYTES_OFFSET, 4);
+        if (Logger.ENABLED) Log.v(TAG, "Valid message: " + data.subSequence(start, start + REQUIRED_LENGTH));
+        if (Logger.ENABLED) Log.v(TAG, "Required byte: " + requiredByte);
+        if (Logger.ENABLED) Log.v(TAG, "Required bytes: " + requiredBytes);
         GlobalData.INSTANCE.setRequiredByte(requiredByte);
         GlobalData.INSTANCE.setRequiredBytes(requiredBytes);
 
@@ -253,34 +254,13 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
         // For example, return true if requiredBytes is 0 or any other condition
         return requiredBytes == 0;
     }
-    private byte getRequiredByte(String message) {
-        try {
-            //String requiredBytesString = message.substring(155,157); //V2
-            String requiredBytesString = message.substring(127, 129); //V1
-            if (requiredBytesString.matches("[0-9A-Fa-f]+")) { // Check if the substring is a valid hexadecimal number
-                return (byte) Integer.parseInt(requiredBytesString, 16); // Parse as a hexadecimal number and cast to byte
-            } else {
-                Log.e(TAG, "Invalid number format in message: " + requiredBytesString);
-                return 0; // or handle the error appropriately
-            }
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "Error parsing required bytes from message: " + message, e);
-            return 0; // or handle the error appropriately
-        }
-    }
-    private int getRequiredBytes(String message) {
-        try {
-            String requiredBytesString = message.substring(97, 101);
-            if (requiredBytesString.matches("[0-9A-Fa-f]+")) { // Check if the substring is a valid hexadecimal number
-                return Integer.parseInt(requiredBytesString, 16); // Parse as a hexadecimal number
-            } else {
-                Log.e(TAG, "Invalid number format in message: " + requiredBytesString);
-                return 0; // or handle the error appropriately
-            }
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "Error parsing required bytes from message: " + message, e);
+    private int getRequiredHex(CharSequence data, int offset, int length) {
+        int value = TextUtil.parseHex(data, offset, offset + length);
+        if (value < 0) {
+            Log.e(TAG, "Invalid number format in message: " + data.subSequence(offset, offset + length));
             return 0; // or handle the error appropriately
         }
+        return value;
     }
 
     @Override
@@ -296,7 +276,7 @@ public class BluetoothTimedService extends Service implements SerialListener, Se
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
                 int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR);
                 if (device.getAddress().equals(deviceAddress)) {
-                    Log.v(TAG, "Bond state changed for device " + deviceAddress + ": " + bondState);
+                    if (Logger.ENABLED) Log.v(TAG, "Bond state changed for device " + deviceAddress + ": " + bondState);
                     if (bondState == BluetoothDevice.BOND_BONDED) {
                         connect();
                     }
@@ -25,8 +25,11 @@ public class BluetoothUtil {
      * more efficient caching of name than BluetoothDevice which always does RPC
      */
     static class Device implements Comparable<Device> {
+        static final int RSSI_UNKNOWN = Integer.MIN_VALUE;
+
         BluetoothDevice device;
         String name;
+        int rssi = RSSI_UNKNOWN;
 
         @SuppressLint("MissingPermission")
         public Device(BluetoothDevice device) {
@@ -36,6 +39,17 @@ public class BluetoothUtil {
 
         public BluetoothDevice getDevice() { return device; }
         public String getName() { return name; }
+        public int getRssi() { return rssi; }
+
+        /**
+         * exponential moving average over advertisement RSSI samples, which jump by several dB
+         * @return true if the smoothed value changed
+         */
+        boolean updateRssi(int sample) {
+            int previous = rssi;
+            rssi = previous == RSSI_UNKNOWN ? sample : previous + Math.round((sample - previous) / 4f);
+            return rssi != previous;
+        }
 
         @Override
         public boolean equals(Object o) {
@@ -19,11 +19,13 @@ package org.traccar.client
 import android.annotation.SuppressLint
 import android.content.ContentValues
 import android.content.Context
+import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.SQLException
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
 import android.os.AsyncTask
-import java.sql.Date
+import kotlin.math.min
 
 class DatabaseHelper(context: Context?) : SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
 
@@ -51,7 +53,33 @@ class DatabaseHelper(context: Context?) : SQLiteOpenHelper(context, DATABASE_NAM
         }
     }
 
-    private val db: SQLiteDatabase = writableDatabase
+    // Opened on first use, so that creating the helper on the main thread doesn't run upgrades there
+    private val db: SQLiteDatabase by lazy { writableDatabase }
+
+    /**
+     * Maximum number of buffered positions, zero means no limit. Alarms are never evicted.
+     */
+    var limit = 0
+
+    /**
+     * Eviction strategy when over [limit]: zero or one drops the oldest positions, any larger
+     * value N thins the oldest history by keeping only every Nth position.
+     */
+    var thinning = 0
+
+    /**
+     * Highest id up to which every position was delivered. Rows at or below it are ignored by
+     * queries and removed in bulk by [truncateAcknowledged]. Loaded on first use.
+     */
+    private var acknowledged = -1L
+    private var untruncated = -1
+
+    private fun acknowledgedId(): Long {
+        if (acknowledged < 0) {
+            acknowledged = DatabaseUtils.longForQuery(db, "SELECT id FROM acknowledged", null)
+        }
+        return acknowledged
+    }
 
     override fun onCreate(db: SQLiteDatabase) {
         db.execSQL(
@@ -67,26 +95,48 @@ class DatabaseHelper(context: Context?) : SQLiteOpenHelper(context, DATABASE_NAM
                     "accuracy REAL," +
                     "battery REAL," +
                     "charging INTEGER," +
-                    "mock INTEGER)"//+
+                    "mock INTEGER," +
+                    "alarm TEXT)"//+
 //                    "boatBattery INTEGER,"+
 //                    "boatCharging INTEGER)"
         )
+        db.execSQL("CREATE INDEX position_device ON position (deviceId)")
+        createAcknowledged(db)
+    }
+
+    private fun createAcknowledged(db: SQLiteDatabase) {
+        db.execSQL("CREATE TABLE acknowledged (id INTEGER NOT NULL)")
+        db.execSQL("INSERT INTO acknowledged (id) VALUES (0)")
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-        db.execSQL("DROP TABLE IF EXISTS position;")
-        onCreate(db)
+        if (oldVersion >= 4) {
+            if (oldVersion < 5) {
+                db.execSQL("ALTER TABLE position ADD COLUMN alarm TEXT;")
+            }
+            if (oldVersion < 6) {
+                db.execSQL("CREATE INDEX position_device ON position (deviceId)")
+            }
+            if (oldVersion < 7) {
+                createAcknowledged(db)
+            }
+        } else {
+            db.execSQL("DROP TABLE IF EXISTS position;")
+            db.execSQL("DROP TABLE IF EXISTS acknowledged;")
+            onCreate(db)
+        }
     }
 
     override fun onDowngrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
         db.execSQL("DROP TABLE IF EXISTS position;")
+        db.execSQL("DROP TABLE IF EXISTS acknowledged;")
         onCreate(db)
     }
 
     fun insertPosition(position: Position) {
         val values = ContentValues()
         values.put("deviceId", position.deviceId)
-        values.put("time", position.time.time)
+        values.put("time", position.time)
         values.put("latitude", position.latitude)
         values.put("longitude", position.longitude)
         values.put("altitude", position.altitude)
@@ -96,57 +146,246 @@ class DatabaseHelper(context: Context?) : SQLiteOpenHelper(context, DATABASE_NAM
         values.put("battery", position.battery)
         values.put("charging", if (position.charging) 1 else 0)
         values.put("mock", if (position.mock) 1 else 0)
+        values.put("alarm", position.alarm)
 //        values.put("boatBattery", position.boatBattery.toInt())
 //        values.put("boatCharging", if (position.boatCharging) 1 else 0)
-        db.insertOrThrow("position", null, values)
+        Metrics.dbInsert.time { db.insertOrThrow("position", null, values) }
+        Metrics.bufferDepth.add(1)
     }
 
     fun insertPositionAsync(position: Position, handler: DatabaseHandler<Unit?>) {
         object : DatabaseAsyncTask<Unit>(handler) {
             override fun executeMethod() {
                 insertPosition(position)
+                evictPositions()
             }
         }.execute()
     }
 
-    @SuppressLint("Range")
-    fun selectPosition(): Position? {
-        db.rawQuery("SELECT * FROM position ORDER BY id LIMIT 1", null).use { cursor ->
+    fun insertPositions(positions: List<Position>) {
+        db.beginTransaction()
+        try {
+            for (position in positions) {
+                insertPosition(position)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    fun insertPositionsAsync(positions: List<Position>, handler: DatabaseHandler<Unit?>) {
+        object : DatabaseAsyncTask<Unit>(handler) {
+            override fun executeMethod() {
+                insertPositions(positions)
+                evictPositions()
+            }
+        }.execute()
+    }
+
+    /**
+     * Removes at most one chunk of positions over the limit, so the cost of catching up
+     * is spread over subsequent inserts.
+     */
+    fun evictPositions(): Int {
+        if (limit <= 0) {
+            return 0
+        }
+        val acknowledged = acknowledgedId().toString()
+        db.rawQuery("SELECT MIN(id), MAX(id) FROM position WHERE id > ?", arrayOf(acknowledged)).use { cursor ->
+            if (!cursor.moveToFirst() || cursor.getLong(1) - cursor.getLong(0) < limit) {
+                return 0
+            }
+        }
+        val excess = DatabaseUtils.queryNumEntries(db, "position", "id > ?", arrayOf(acknowledged)) - limit
+        if (excess <= 0) {
+            return 0
+        }
+        if (thinning <= 1) {
+            val count = db.delete(
+                "position", "id IN (SELECT id FROM position WHERE alarm IS NULL AND id > ? ORDER BY id LIMIT ?)",
+                arrayOf(acknowledged, min(excess, EVICTION_CHUNK.toLong()).toString()))
+            Metrics.bufferDepth.add(-count.toLong())
+            return count
+        }
+        val window = min(excess * thinning / (thinning - 1) + 1, EVICTION_CHUNK.toLong())
+        val ids = ArrayList<Long>()
+        db.rawQuery(
+            "SELECT id FROM position WHERE alarm IS NULL AND id > ? ORDER BY id LIMIT ?",
+            arrayOf(acknowledged, window.toString())
+        ).use { cursor ->
+            var index = 0
+            while (cursor.moveToNext()) {
+                if (index++ % thinning != 0) {
+                    ids.add(cursor.getLong(0))
+                }
+            }
+        }
+        deletePositions(ids)
+        return ids.size
+    }
+
+    /**
+     * Returns the next position to send. Alarms always come first, then either the newest
+     * position (when [latest] is set) or the oldest one for backfilling history. When
+     * [deviceId] is given only positions of that device are considered.
+     */
+    fun selectPosition(latest: Boolean = false, deviceId: String? = null): Position? {
+        val order = if (latest) "DESC" else "ASC"
+        return Metrics.dbSelect.time { selectPositionInternal(order, deviceId) }
+    }
+
+    private fun selectPositionInternal(order: String, deviceId: String?): Position? {
+        val acknowledged = acknowledgedId().toString()
+        val query = if (deviceId != null) {
+            db.rawQuery(
+                "SELECT * FROM position WHERE deviceId = ? AND id > ? ORDER BY alarm IS NULL, id $order LIMIT 1",
+                arrayOf(deviceId, acknowledged))
+        } else {
+            db.rawQuery(
+                "SELECT * FROM position WHERE id > ? ORDER BY alarm IS NULL, id $order LIMIT 1", arrayOf(acknowledged))
+        }
+        query.use { cursor ->
             if (cursor.count > 0) {
                 cursor.moveToFirst()
-                return Position(
-                    id = cursor.getLong(cursor.getColumnIndex("id")),
-                    deviceId = cursor.getString(cursor.getColumnIndex("deviceId")),
-                    time = Date(cursor.getLong(cursor.getColumnIndex("time"))),
-                    latitude = cursor.getDouble(cursor.getColumnIndex("latitude")),
-                    longitude = cursor.getDouble(cursor.getColumnIndex("longitude")),
-                    altitude = cursor.getDouble(cursor.getColumnIndex("altitude")),
-                    speed = cursor.getDouble(cursor.getColumnIndex("speed")),
-                    course = cursor.getDouble(cursor.getColumnIndex("course")),
-                    accuracy = cursor.getDouble(cursor.getColumnIndex("accuracy")),
-                    battery = cursor.getDouble(cursor.getColumnIndex("battery")),
-                    charging = cursor.getInt(cursor.getColumnIndex("charging")) > 0,
-                    mock = cursor.getInt(cursor.getColumnIndex("mock")) > 0,
-//                    boatBattery = cursor.getInt(cursor.getColumnIndex("boatBattery")).toByte(),
-//                    boatCharging = cursor.getInt(cursor.getColumnIndex("boatCharging")) > 0,
-                )
+                return readPosition(cursor)
             }
         }
         return null
     }
 
-    fun selectPositionAsync(handler: DatabaseHandler<Position?>) {
+    @SuppressLint("Range")
+    private fun readPosition(cursor: Cursor): Position {
+        return Position(
+            id = cursor.getLong(cursor.getColumnIndex("id")),
+            deviceId = cursor.getString(cursor.getColumnIndex("deviceId")),
+            time = cursor.getLong(cursor.getColumnIndex("time")),
+            latitude = cursor.getDouble(cursor.getColumnIndex("latitude")),
+            longitude = cursor.getDouble(cursor.getColumnIndex("longitude")),
+            altitude = cursor.getDouble(cursor.getColumnIndex("altitude")),
+            speed = cursor.getDouble(cursor.getColumnIndex("speed")),
+            course = cursor.getDouble(cursor.getColumnIndex("course")),
+            accuracy = cursor.getDouble(cursor.getColumnIndex("accuracy")),
+            battery = cursor.getDouble(cursor.getColumnIndex("battery")),
+            charging = cursor.getInt(cursor.getColumnIndex("charging")) > 0,
+            mock = cursor.getInt(cursor.getColumnIndex("mock")) > 0,
+            alarm = cursor.getString(cursor.getColumnIndex("alarm")),
+//            boatBattery = cursor.getInt(cursor.getColumnIndex("boatBattery")).toByte(),
+//            boatCharging = cursor.getInt(cursor.getColumnIndex("boatCharging")) > 0,
+        )
+    }
+
+    fun selectPositionAsync(latest: Boolean, deviceId: String?, handler: DatabaseHandler<Position?>) {
         object : DatabaseAsyncTask<Position?>(handler) {
             override fun executeMethod(): Position? {
-                return selectPosition()
+                return selectPosition(latest, deviceId)
+            }
+        }.execute()
+    }
+
+    /**
+     * Returns up to [count] oldest positions of the device, with any alarms first.
+     */
+    fun selectPositions(deviceId: String, count: Int): List<Position> {
+        val positions = ArrayList<Position>()
+        Metrics.dbSelect.time {
+            db.rawQuery(
+                "SELECT * FROM position WHERE deviceId = ? AND id > ? ORDER BY alarm IS NULL, id LIMIT ?",
+                arrayOf(deviceId, acknowledgedId().toString(), count.toString())
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    positions.add(readPosition(cursor))
+                }
+            }
+        }
+        return positions
+    }
+
+    fun selectPositionsAsync(deviceId: String, count: Int, handler: DatabaseHandler<List<Position>?>) {
+        object : DatabaseAsyncTask<List<Position>>(handler) {
+            override fun executeMethod(): List<Position> {
+                return selectPositions(deviceId, count)
             }
         }.execute()
     }
 
+    fun deletePositions(ids: List<Long>) {
+        var count = 0
+        Metrics.dbDelete.time {
+            db.beginTransaction()
+            try {
+                val statement = db.compileStatement("DELETE FROM position WHERE id = ?")
+                for (id in ids) {
+                    statement.bindLong(1, id)
+                    count += statement.executeUpdateDelete()
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+        Metrics.bufferDepth.add(-count.toLong())
+    }
+
+    fun deletePositionsAsync(ids: List<Long>, handler: DatabaseHandler<Unit?>) {
+        object : DatabaseAsyncTask<Unit>(handler) {
+            override fun executeMethod() {
+                deletePositions(ids)
+            }
+        }.execute()
+    }
+
+    fun acknowledgePosition(id: Long) {
+        acknowledgePositions(listOf(id))
+    }
+
+    /**
+     * Marks delivered positions. When they are the oldest pending rows, which is the case while
+     * backfilling, only the acknowledged id moves forward. Out of order deliveries (alarms, newest
+     * first) are deleted directly.
+     */
+    fun acknowledgePositions(ids: List<Long>) {
+        val acknowledged = acknowledgedId()
+        val pending = ids.filter { it > acknowledged }
+        val maxId = pending.maxOrNull() ?: return
+        val older = DatabaseUtils.longForQuery(
+            db, "SELECT COUNT(*) FROM (SELECT 1 FROM position WHERE id > ? AND id <= ? LIMIT ?)",
+            arrayOf(acknowledged.toString(), maxId.toString(), (pending.size + 1).toString()))
+        if (older != pending.size.toLong()) {
+            deletePositions(pending)
+            return
+        }
+        Metrics.dbDelete.time {
+            db.execSQL("UPDATE acknowledged SET id = ?", arrayOf(maxId))
+        }
+        this.acknowledged = maxId
+        Metrics.bufferDepth.add(-pending.size.toLong())
+        if (untruncated >= 0) {
+            untruncated += pending.size
+        }
+        if (untruncated >= TRUNCATE_THRESHOLD) {
+            truncateAcknowledged()
+        }
+    }
+
+    /**
+     * Removes acknowledged rows in one statement. Called at startup and once enough of them
+     * piled up, so steady real-time tracking only pays for the acknowledged id update.
+     */
+    fun truncateAcknowledged() {
+        if (untruncated != 0) {
+            Metrics.dbDelete.time {
+                db.delete("position", "id <= ?", arrayOf(acknowledgedId().toString()))
+            }
+            untruncated = 0
+        }
+    }
+
     fun deletePosition(id: Long) {
-        if (db.delete("position", "id = ?", arrayOf(id.toString())) != 1) {
+        if (Metrics.dbDelete.time { db.delete("position", "id = ?", arrayOf(id.toString())) } != 1) {
             throw SQLException()
         }
+        Metrics.bufferDepth.add(-1)
     }
 
     fun deletePositionAsync(id: Long, handler: DatabaseHandler<Unit?>) {
@@ -157,9 +396,26 @@ class DatabaseHelper(context: Context?) : SQLiteOpenHelper(context, DATABASE_NAM
         }.execute()
     }
 
+    fun deleteOtherDevices(deviceId: String): Int {
+        val count = db.delete("position", "deviceId IS NULL OR deviceId != ?", arrayOf(deviceId))
+        Metrics.bufferDepth.set(
+            DatabaseUtils.queryNumEntries(db, "position", "id > ?", arrayOf(acknowledgedId().toString())))
+        return count
+    }
+
+    fun deleteOtherDevicesAsync(deviceId: String, handler: DatabaseHandler<Int?>) {
+        object : DatabaseAsyncTask<Int>(handler) {
+            override fun executeMethod(): Int {
+                return deleteOtherDevices(deviceId)
+            }
+        }.execute()
+    }
+
     companion object {
-        const val DATABASE_VERSION = 4
+        const val DATABASE_VERSION = 7
         const val DATABASE_NAME = "traccar.db"
+        private const val EVICTION_CHUNK = 500
+        private const val TRUNCATE_THRESHOLD = 500
     }
 
 }
@@ -5,17 +5,22 @@ import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelUuid;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -33,6 +38,9 @@ import androidx.fragment.app.ListFragment;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * show list of BLE devices
@@ -42,23 +50,43 @@ public class DevicesFragment extends ListFragment {
     private enum ScanState { NONE, LE_SCAN, DISCOVERY, DISCOVERY_FINISHED }
     private ScanState scanState = ScanState.NONE;
     private static final long LE_SCAN_PERIOD = 10000; // similar to bluetoothAdapter.startDiscovery
-    private final Handler leScanStopHandler = new Handler();
-    private final BluetoothAdapter.LeScanCallback leScanCallback;
+    private static final long REFRESH_PERIOD = 250; // busy marinas report hundreds of advertisements per second
+    private final Handler leScanStopHandler = new Handler(Looper.getMainLooper());
+    private final ScanCallback leScanCallback;
     private final Runnable leScanStopCallback;
+    private final Runnable refreshCallback;
+    private BluetoothLeScanner leScanner;
     private final BroadcastReceiver discoveryBroadcastReceiver;
     private final IntentFilter discoveryIntentFilter;
 
     private Menu menu;
     private BluetoothAdapter bluetoothAdapter;
     private final ArrayList<BluetoothUtil.Device> listItems = new ArrayList<>();
+    private final HashMap<String, BluetoothUtil.Device> scannedDevices = new HashMap<>();
+    private boolean listChanged, refreshPending;
     private ArrayAdapter<BluetoothUtil.Device> listAdapter;
     ActivityResultLauncher<String[]> requestBluetoothPermissionLauncherForStartScan;
     ActivityResultLauncher<String> requestLocationPermissionLauncherForStartScan;
 
     public DevicesFragment() {
-        leScanCallback = (device, rssi, scanRecord) -> {
-            if(device != null && getActivity() != null) {
-                getActivity().runOnUiThread(() -> { updateScan(device); });
+        // BluetoothLeScanner delivers results on the main thread
+        leScanCallback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                if(result.getDevice() != null)
+                    updateScan(result.getDevice(), result.getRssi());
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                for(ScanResult result : results)
+                    onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                stopScan();
+                setEmptyText("<scan failed: " + errorCode + ">");
             }
         };
         discoveryBroadcastReceiver = new BroadcastReceiver() {
@@ -67,8 +95,9 @@ public class DevicesFragment extends ListFragment {
             public void onReceive(Context context, Intent intent) {
                 if(BluetoothDevice.ACTION_FOUND.equals(intent.getAction())) {
                     BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    if(device.getType() != BluetoothDevice.DEVICE_TYPE_CLASSIC && getActivity() != null) {
-                        getActivity().runOnUiThread(() -> updateScan(device));
+                    short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+                    if(device.getType() != BluetoothDevice.DEVICE_TYPE_CLASSIC) {
+                        updateScan(device, rssi != Short.MIN_VALUE ? rssi : BluetoothUtil.Device.RSSI_UNKNOWN);
                     }
                 }
                 if(BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(intent.getAction())) {
@@ -81,6 +110,7 @@ public class DevicesFragment extends ListFragment {
         discoveryIntentFilter.addAction(BluetoothDevice.ACTION_FOUND);
         discoveryIntentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
         leScanStopCallback = this::stopScan; // w/o explicit Runnable, a new lambda would be created on each postDelayed, which would not be found again by removeCallbacks
+        refreshCallback = this::refreshList;
         requestBluetoothPermissionLauncherForStartScan = registerForActivityResult(
                 new ActivityResultContracts.RequestMultiplePermissions(),
                 granted -> BluetoothUtil.onPermissionsResult(this, granted, this::startScan));
@@ -118,7 +148,10 @@ public class DevicesFragment extends ListFragment {
                 if(deviceName == null || deviceName.isEmpty())
                     deviceName = "<unnamed>";
                 text1.setText(deviceName);
-                text2.setText(device.getDevice().getAddress());
+                if(device.getRssi() != BluetoothUtil.Device.RSSI_UNKNOWN)
+                    text2.setText(device.getDevice().getAddress() + "  " + device.getRssi() + " dBm");
+                else
+                    text2.setText(device.getDevice().getAddress());
                 return view;
             }
         };
@@ -156,8 +189,7 @@ public class DevicesFragment extends ListFragment {
         } else if(!bluetoothAdapter.isEnabled()) {
             setEmptyText("<bluetooth is disabled>");
             if (menu != null) {
-                listItems.clear();
-                listAdapter.notifyDataSetChanged();
+                clearList();
                 menu.findItem(R.id.ble_scan).setEnabled(false);
             }
         } else {
@@ -234,31 +266,73 @@ public class DevicesFragment extends ListFragment {
             // we fall back to the older API that scans for bluetooth classic _and_ LE
             // sometimes the older API returns less results or slower
         }
+        if(nextScanState == ScanState.LE_SCAN) {
+            leScanner = bluetoothAdapter.getBluetoothLeScanner();
+            if(leScanner == null) // bluetooth turned off meanwhile
+                return;
+        }
         scanState = nextScanState;
-        listItems.clear();
-        listAdapter.notifyDataSetChanged();
+        clearList();
         setEmptyText("<scanning...>");
         menu.findItem(R.id.ble_scan).setVisible(false);
         menu.findItem(R.id.ble_scan_stop).setVisible(true);
         if(scanState == ScanState.LE_SCAN) {
             leScanStopHandler.postDelayed(leScanStopCallback, LE_SCAN_PERIOD);
-            new Thread(() -> bluetoothAdapter.startLeScan(null, leScanCallback), "startLeScan")
-                    .start(); // start async to prevent blocking UI, because startLeScan sometimes take some seconds
+            List<ScanFilter> filters = new ArrayList<>();
+            for(UUID uuid : SerialSocket.SERVICE_UUIDS)
+                filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(uuid)).build());
+            ScanSettings settings = new ScanSettings.Builder()
+                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                    .build();
+            leScanner.startScan(filters, settings, leScanCallback);
         } else {
             bluetoothAdapter.startDiscovery();
         }
     }
 
-    @SuppressLint("MissingPermission")
-    private void updateScan(BluetoothDevice device) {
+    /**
+     * record a scan hit. the list is refreshed at most every REFRESH_PERIOD,
+     * so repeated advertisements only update the device entry
+     */
+    private void updateScan(BluetoothDevice device, int rssi) {
         if(scanState == ScanState.NONE)
             return;
-        BluetoothUtil.Device device2 = new BluetoothUtil.Device(device); // slow getName() only once
-        int pos = Collections.binarySearch(listItems, device2);
-        if (pos < 0) {
-            listItems.add(-pos - 1, device2);
-            listAdapter.notifyDataSetChanged();
+        BluetoothUtil.Device device2 = scannedDevices.get(device.getAddress());
+        boolean changed;
+        if (device2 == null) {
+            device2 = new BluetoothUtil.Device(device); // slow getName() only once
+            scannedDevices.put(device.getAddress(), device2);
+            listChanged = true;
+            changed = true;
+        } else {
+            changed = false;
+        }
+        if (rssi != BluetoothUtil.Device.RSSI_UNKNOWN)
+            changed |= device2.updateRssi(rssi);
+        if (changed && !refreshPending) {
+            refreshPending = true;
+            leScanStopHandler.postDelayed(refreshCallback, REFRESH_PERIOD);
+        }
+    }
+
+    private void refreshList() {
+        refreshPending = false;
+        if (listChanged) {
+            listChanged = false;
+            listItems.clear();
+            listItems.addAll(scannedDevices.values());
+            Collections.sort(listItems);
         }
+        listAdapter.notifyDataSetChanged();
+    }
+
+    private void clearList() {
+        leScanStopHandler.removeCallbacks(refreshCallback);
+        refreshPending = false;
+        listChanged = false;
+        scannedDevices.clear();
+        listItems.clear();
+        listAdapter.notifyDataSetChanged();
     }
 
     @SuppressLint("MissingPermission")
@@ -273,7 +347,10 @@ public class DevicesFragment extends ListFragment {
         switch(scanState) {
             case LE_SCAN:
                 leScanStopHandler.removeCallbacks(leScanStopCallback);
-                bluetoothAdapter.stopLeScan(leScanCallback);
+                try {
+                    leScanner.stopScan(leScanCallback);
+                } catch (IllegalStateException ignored) {} // bluetooth already turned off
+                leScanner = null;
                 break;
             case DISCOVERY:
                 bluetoothAdapter.cancelDiscovery();
@@ -291,11 +368,7 @@ public class DevicesFragment extends ListFragment {
         BluetoothUtil.Device device = listItems.get(position-1);
         Bundle args = new Bundle();
         args.putString("device", device.getDevice().getAddress());
-        SharedPreferences sharedPreferences = getActivity().getSharedPreferences("MySharedPref", Context.MODE_PRIVATE);
-        SharedPreferences.Editor myEdit = sharedPreferences.edit();
-        myEdit.putString("lastConnectedDeviceAddress", device.getDevice().getAddress());
-        myEdit.apply();
-        BluetoothDeviceManager.INSTANCE.setLastDeviceAddress(device.getDevice().getAddress());
+        BluetoothDeviceManager.setLastDeviceAddress(getActivity(), device.getDevice().getAddress());
         Fragment fragment = new TerminalFragment();
         fragment.setArguments(args);
         getFragmentManager().beginTransaction().replace(R.id.fragment, fragment, "terminal").addToBackStack(null).commit();
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+import android.util.Log
+
+/**
+ * Debug logging that costs nothing in release builds. Kotlin callers pass the message as an
+ * inlined lambda, so it is only built when logging is enabled; Java callers check [ENABLED]
+ * before building the message.
+ */
+object Logger {
+
+    const val ENABLED = BuildConfig.DEBUG
+
+    inline fun v(tag: String, message: () -> String) {
+        if (ENABLED) {
+            Log.v(tag, message())
+        }
+    }
+
+    inline fun d(tag: String, message: () -> String) {
+        if (ENABLED) {
+            Log.d(tag, message())
+        }
+    }
+
+    inline fun i(tag: String, message: () -> String) {
+        if (ENABLED) {
+            Log.i(tag, message())
+        }
+    }
+
+}
@@ -15,7 +15,6 @@
  */
 package org.traccar.client
 
-import android.content.Context
 import android.content.Intent
 import android.os.Bundle
 import androidx.appcompat.app.AppCompatActivity
@@ -25,12 +24,7 @@ class MainActivity : AppCompatActivity() {
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.main)
-        val sharedPreferences = getSharedPreferences("MySharedPref", Context.MODE_PRIVATE)
-        val lastDeviceAddress = sharedPreferences.getString("lastConnectedDeviceAddress", null)
-
-        if (lastDeviceAddress != null) {
-            BluetoothDeviceManager.setLastDeviceAddress(lastDeviceAddress)
-        }
+        BluetoothDeviceManager.init(this)
         startService(Intent(this, BluetoothTimedService::class.java))
 
     }
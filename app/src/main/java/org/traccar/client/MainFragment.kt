@@ -17,8 +17,6 @@ package org.traccar.client
 
 import android.Manifest
 import android.annotation.SuppressLint
-import android.app.AlarmManager
-import android.app.PendingIntent
 import android.content.Context
 import android.content.Intent
 import android.content.SharedPreferences
@@ -50,8 +48,6 @@ import java.util.*
 class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListener {
 
     private lateinit var sharedPreferences: SharedPreferences
-    private lateinit var alarmManager: AlarmManager
-    private lateinit var alarmIntent: PendingIntent
     private var requestingPermissions: Boolean = false
 
     @SuppressLint("UnspecifiedImmutableFlag")
@@ -67,6 +63,9 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
         findPreference<Preference>(KEY_URL)?.onPreferenceChangeListener = Preference.OnPreferenceChangeListener { _, newValue ->
             newValue != null && validateServerURL(newValue.toString())
         }
+        findPreference<Preference>(KEY_COMPACT_URL)?.onPreferenceChangeListener = Preference.OnPreferenceChangeListener { _, newValue ->
+            newValue == "" || newValue != null && validateServerURL(newValue.toString(), allowStream = false)
+        }
         findPreference<Preference>(KEY_INTERVAL)?.onPreferenceChangeListener = Preference.OnPreferenceChangeListener { _, newValue ->
             try {
                 newValue != null && (newValue as String).toInt() > 0
@@ -85,17 +84,12 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
         }
         findPreference<Preference>(KEY_DISTANCE)?.onPreferenceChangeListener = numberValidationListener
         findPreference<Preference>(KEY_ANGLE)?.onPreferenceChangeListener = numberValidationListener
-
-        alarmManager = requireActivity().getSystemService(Context.ALARM_SERVICE) as AlarmManager
-        val originalIntent = Intent(activity, AutostartReceiver::class.java)
-        originalIntent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND)
-
-        val flags = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_MUTABLE
-        } else {
-            PendingIntent.FLAG_UPDATE_CURRENT
-        }
-        alarmIntent = PendingIntent.getBroadcast(activity, 0, originalIntent, flags)
+        findPreference<Preference>(KEY_BATCH)?.onPreferenceChangeListener = numberValidationListener
+        findPreference<Preference>(KEY_BUFFER_LIMIT)?.onPreferenceChangeListener = numberValidationListener
+        findPreference<Preference>(KEY_BUFFER_THINNING)?.onPreferenceChangeListener = numberValidationListener
+        findPreference<Preference>(KEY_MEMORY_BUFFER)?.onPreferenceChangeListener = numberValidationListener
+        findPreference<Preference>(KEY_UPLOAD_COUNT)?.onPreferenceChangeListener = numberValidationListener
+        findPreference<Preference>(KEY_UPLOAD_AGE)?.onPreferenceChangeListener = numberValidationListener
 
         if (sharedPreferences.getBoolean(KEY_STATUS, false)) {
             startTrackingService(checkPermission = true, initialPermission = false)
@@ -123,7 +117,7 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
 
     @Suppress("DEPRECATION")
     override fun onDisplayPreferenceDialog(preference: Preference) {
-        if (listOf(KEY_INTERVAL, KEY_DISTANCE, KEY_ANGLE).contains(preference.key)) {
+        if (listOf(KEY_INTERVAL, KEY_DISTANCE, KEY_ANGLE, KEY_BATCH, KEY_UPLOAD_COUNT, KEY_UPLOAD_AGE, KEY_MEMORY_BUFFER, KEY_BUFFER_LIMIT, KEY_BUFFER_THINNING).contains(preference.key)) {
             val f: EditTextPreferenceDialogFragmentCompat =
                 NumericEditTextPreferenceDialogFragment.newInstance(preference.key)
             f.setTargetFragment(this, 0)
@@ -153,9 +147,16 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
     private fun setPreferencesEnabled(enabled: Boolean) {
         findPreference<Preference>(KEY_DEVICE)?.isEnabled = enabled
         findPreference<Preference>(KEY_URL)?.isEnabled = enabled
+        findPreference<Preference>(KEY_COMPACT_URL)?.isEnabled = enabled
         findPreference<Preference>(KEY_INTERVAL)?.isEnabled = enabled
         findPreference<Preference>(KEY_DISTANCE)?.isEnabled = enabled
         findPreference<Preference>(KEY_ANGLE)?.isEnabled = enabled
+        findPreference<Preference>(KEY_BATCH)?.isEnabled = enabled
+        findPreference<Preference>(KEY_BUFFER_LIMIT)?.isEnabled = enabled
+        findPreference<Preference>(KEY_BUFFER_THINNING)?.isEnabled = enabled
+        findPreference<Preference>(KEY_MEMORY_BUFFER)?.isEnabled = enabled
+        findPreference<Preference>(KEY_UPLOAD_COUNT)?.isEnabled = enabled
+        findPreference<Preference>(KEY_UPLOAD_AGE)?.isEnabled = enabled
         findPreference<Preference>(KEY_ACCURACY)?.isEnabled = enabled
         findPreference<Preference>(KEY_BUFFER)?.isEnabled = enabled
         findPreference<Preference>(KEY_WAKELOCK)?.isEnabled = enabled
@@ -235,12 +236,6 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
         if (permission) {
             setPreferencesEnabled(false)
             ContextCompat.startForegroundService(requireContext(), Intent(activity, TrackingService::class.java))
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
-                alarmManager.setInexactRepeating(
-                    AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                    ALARM_MANAGER_INTERVAL.toLong(), ALARM_MANAGER_INTERVAL.toLong(), alarmIntent
-                )
-            }
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
                 && ContextCompat.checkSelfPermission(requireContext(), Manifest.permission.ACCESS_BACKGROUND_LOCATION) != PackageManager.PERMISSION_GRANTED) {
@@ -259,9 +254,7 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
     }
 
     private fun stopTrackingService() {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
-            alarmManager.cancel(alarmIntent)
-        }
+        ServiceWatchdog.stop(requireContext())
         requireActivity().stopService(Intent(activity, TrackingService::class.java))
         setPreferencesEnabled(true)
     }
@@ -279,8 +272,12 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
         }
     }
 
-    private fun validateServerURL(userUrl: String): Boolean {
-        val port = Uri.parse(userUrl).port
+    private fun validateServerURL(userUrl: String, allowStream: Boolean = true): Boolean {
+        val uri = Uri.parse(userUrl)
+        val port = uri.port
+        if (allowStream && StreamTransport.isSupported(userUrl) && !uri.host.isNullOrEmpty() && (port == -1 || port in 1..65535)) {
+            return true
+        }
         if (
             URLUtil.isValidUrl(userUrl) &&
             (port == -1 || port in 1..65535) &&
@@ -294,15 +291,21 @@ class MainFragment : PreferenceFragmentCompat(), OnSharedPreferenceChangeListene
 
     companion object {
         private val TAG = MainFragment::class.java.simpleName
-        private const val ALARM_MANAGER_INTERVAL = 15000
         const val KEY_DEVICE = "id"
         const val KEY_URL = "url"
         const val KEY_INTERVAL = "interval"
         const val KEY_DISTANCE = "distance"
         const val KEY_ANGLE = "angle"
+        const val KEY_BATCH = "batch"
         const val KEY_ACCURACY = "accuracy"
         const val KEY_STATUS = "status"
         const val KEY_BUFFER = "buffer"
+        const val KEY_MEMORY_BUFFER = "memoryBuffer"
+        const val KEY_BUFFER_LIMIT = "bufferLimit"
+        const val KEY_BUFFER_THINNING = "bufferThinning"
+        const val KEY_COMPACT_URL = "compactUrl"
+        const val KEY_UPLOAD_COUNT = "uploadCount"
+        const val KEY_UPLOAD_AGE = "uploadAge"
         const val KEY_WAKELOCK = "wakelock"
         private const val PERMISSIONS_REQUEST_LOCATION = 2
         private const val PERMISSIONS_REQUEST_BACKGROUND_LOCATION = 3
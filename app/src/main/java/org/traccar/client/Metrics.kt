@@ -0,0 +1,210 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+import android.os.SystemClock
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free registry of pipeline counters, gauges and latency histograms.
+ */
+object Metrics {
+
+    abstract class Metric(val name: String) {
+        abstract fun format(builder: StringBuilder, elapsed: Long)
+        abstract fun reset()
+    }
+
+    class Counter(name: String) : Metric(name) {
+
+        private val value = AtomicLong()
+
+        val count: Long
+            get() = value.get()
+
+        fun increment() {
+            value.incrementAndGet()
+        }
+
+        fun add(delta: Long) {
+            value.addAndGet(delta)
+        }
+
+        override fun format(builder: StringBuilder, elapsed: Long) {
+            builder.append(name).append(": ").append(count)
+            if (elapsed > 0) {
+                builder.append(" (").append(count * 60000 / elapsed).append("/min)")
+            }
+        }
+
+        override fun reset() {
+            value.set(0)
+        }
+    }
+
+    class Gauge(name: String) : Metric(name) {
+
+        private val current = AtomicLong()
+
+        val value: Long
+            get() = current.get()
+
+        fun set(value: Long) {
+            current.set(value)
+        }
+
+        fun add(delta: Long) {
+            current.addAndGet(delta)
+        }
+
+        override fun format(builder: StringBuilder, elapsed: Long) {
+            builder.append(name).append(": ").append(value)
+        }
+
+        // Gauges describe current state, so they survive a reset
+        override fun reset() {}
+    }
+
+    /**
+     * Latency histogram with power of two microsecond buckets, so recording is a couple of
+     * atomic increments and percentiles are accurate to within a factor of two.
+     */
+    class Histogram(name: String) : Metric(name) {
+
+        private val buckets = AtomicLongArray(BUCKETS)
+        private val total = AtomicLong()
+        private val maximum = AtomicLong()
+
+        val count: Long
+            get() = total.get()
+
+        fun record(nanos: Long) {
+            val micros = (nanos / 1000).coerceAtLeast(0)
+            buckets.incrementAndGet(64 - java.lang.Long.numberOfLeadingZeros(micros))
+            total.incrementAndGet()
+            var max = maximum.get()
+            while (micros > max && !maximum.compareAndSet(max, micros)) {
+                max = maximum.get()
+            }
+        }
+
+        inline fun <T> time(block: () -> T): T {
+            val start = SystemClock.elapsedRealtimeNanos()
+            try {
+                return block()
+            } finally {
+                record(SystemClock.elapsedRealtimeNanos() - start)
+            }
+        }
+
+        /**
+         * Upper bound of the bucket containing the given percentile, in microseconds.
+         */
+        fun percentile(percentile: Double): Long {
+            val count = total.get()
+            if (count == 0L) {
+                return 0
+            }
+            val threshold = Math.ceil(count * percentile / 100).toLong()
+            var seen = 0L
+            for (i in 0 until BUCKETS) {
+                seen += buckets.get(i)
+                if (seen >= threshold) {
+                    return if (i == 0) 0 else 1L shl i
+                }
+            }
+            return maximum.get()
+        }
+
+        override fun format(builder: StringBuilder, elapsed: Long) {
+            builder.append(name).append(": n=").append(count)
+            if (count > 0) {
+                builder.append(" p50=").append(formatMicros(percentile(50.0)))
+                builder.append(" p99=").append(formatMicros(percentile(99.0)))
+                builder.append(" max=").append(formatMicros(maximum.get()))
+            }
+        }
+
+        override fun reset() {
+            for (i in 0 until BUCKETS) {
+                buckets.set(i, 0)
+            }
+            total.set(0)
+            maximum.set(0)
+        }
+
+        private fun formatMicros(micros: Long): String {
+            return if (micros >= 1000) "${micros / 1000}ms" else "${micros}us"
+        }
+
+        companion object {
+            private const val BUCKETS = 65
+        }
+    }
+
+    private val metrics = ConcurrentHashMap<String, Metric>()
+
+    @Volatile
+    private var startTime = SystemClock.elapsedRealtime()
+
+    fun counter(name: String): Counter = register(Counter(name))
+
+    fun gauge(name: String): Gauge = register(Gauge(name))
+
+    fun histogram(name: String): Histogram = register(Histogram(name))
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T : Metric> register(metric: T): T {
+        return metrics.putIfAbsent(metric.name, metric) as T? ?: metric
+    }
+
+    @JvmField val fixAccepted = counter("fix.accepted")
+    @JvmField val fixIgnored = counter("fix.ignored")
+    @JvmField val fixDropped = counter("fix.dropped")
+    @JvmField val dbInsert = histogram("db.insert")
+    @JvmField val dbSelect = histogram("db.select")
+    @JvmField val dbDelete = histogram("db.delete")
+    @JvmField val httpSend = histogram("http.send")
+    @JvmField val httpFailures = counter("http.failures")
+    @JvmField val retries = counter("pipeline.retries")
+    @JvmField val bufferDepth = gauge("buffer.rows")
+    @JvmField val memoryDepth = gauge("buffer.memory")
+    @JvmField val bleFrames = counter("ble.frames")
+    @JvmField val wakeLockAcquired = counter("wakelock.acquired")
+    @JvmField val wakeLockHeld = counter("wakelock.held_ms")
+    @JvmField val startupMain = histogram("startup.main")
+    @JvmField val startupDatabase = histogram("startup.database")
+
+    fun format(): String {
+        val elapsed = SystemClock.elapsedRealtime() - startTime
+        val builder = StringBuilder()
+        for (metric in metrics.values.sortedBy { it.name }) {
+            metric.format(builder, elapsed)
+            builder.append('\n')
+        }
+        return builder.toString()
+    }
+
+    fun reset() {
+        for (metric in metrics.values) {
+            metric.reset()
+        }
+        startTime = SystemClock.elapsedRealtime()
+    }
+
+}
@@ -16,42 +16,112 @@
 @file:Suppress("DEPRECATION")
 package org.traccar.client
 
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import android.net.ConnectivityManager
-import android.util.Log
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
 
-class NetworkManager(private val context: Context, private val handler: NetworkHandler?) : BroadcastReceiver() {
+/**
+ * Follows the default network through NetworkCallback. A network only counts as online once the
+ * system validated its internet access, so captive portals and dead links don't trigger sends.
+ */
+class NetworkManager(private val context: Context, private val handler: NetworkHandler?) {
 
     private val connectivityManager = context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+    private val mainHandler = Handler(Looper.getMainLooper())
 
     interface NetworkHandler {
         fun onNetworkUpdate(isOnline: Boolean)
     }
 
-    val isOnline: Boolean
-        get() {
-            val activeNetwork = connectivityManager.activeNetworkInfo
-            return activeNetwork != null && activeNetwork.isConnectedOrConnecting
+    @Volatile
+    var isOnline: Boolean = false
+        private set
+
+    @Volatile
+    var isMetered: Boolean = true
+        private set
+
+    /**
+     * Estimated upstream bandwidth of the current link in kbps, zero when unknown.
+     */
+    @Volatile
+    var upstreamBandwidth: Int = 0
+        private set
+
+    private val callback = object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) {
+            update()
         }
 
+        override fun onCapabilitiesChanged(network: Network, networkCapabilities: NetworkCapabilities) {
+            update()
+        }
+
+        override fun onLost(network: Network) {
+            update()
+        }
+    }
+
+    init {
+        refresh()
+    }
+
     fun start() {
-        val filter = IntentFilter()
-        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION)
-        context.registerReceiver(this, filter)
+        refresh()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            connectivityManager.registerDefaultNetworkCallback(callback)
+        } else {
+            val request = NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build()
+            connectivityManager.registerNetworkCallback(request, callback)
+        }
     }
 
     fun stop() {
-        context.unregisterReceiver(this)
+        connectivityManager.unregisterNetworkCallback(callback)
+        mainHandler.removeCallbacksAndMessages(null)
     }
 
-    override fun onReceive(context: Context, intent: Intent) {
-        if (intent.action == ConnectivityManager.CONNECTIVITY_ACTION && handler != null) {
-            val isOnline = isOnline
-            Log.i(TAG, "network " + if (isOnline) "on" else "off")
-            handler.onNetworkUpdate(isOnline)
+    private fun update() {
+        // callbacks arrive on a connectivity thread, handlers expect the main thread
+        mainHandler.post {
+            val wasOnline = isOnline
+            val wasMetered = isMetered
+            refresh()
+            if (wasOnline != isOnline || wasMetered != isMetered) {
+                Logger.i(TAG) {
+                    "network " + (if (isOnline) "on" else "off") +
+                            (if (isMetered) " metered" else "") + " " + upstreamBandwidth + "kbps"
+                }
+                handler?.onNetworkUpdate(isOnline)
+            }
+        }
+    }
+
+    private fun refresh() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            val capabilities = connectivityManager.getNetworkCapabilities(connectivityManager.activeNetwork)
+            if (capabilities != null) {
+                isOnline = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+                isMetered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+                upstreamBandwidth = capabilities.linkUpstreamBandwidthKbps
+            } else {
+                isOnline = false
+                isMetered = true
+                upstreamBandwidth = 0
+            }
+        } else {
+            val activeNetwork = connectivityManager.activeNetworkInfo
+            isOnline = activeNetwork != null && activeNetwork.isConnected
+            isMetered = connectivityManager.isActiveNetworkMetered
+            upstreamBandwidth = 0
         }
     }
 
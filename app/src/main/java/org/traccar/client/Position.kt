@@ -24,7 +24,7 @@ import java.util.Date
 data class Position(
     val id: Long = 0,
     val deviceId: String,
-    val time: Date,
+    val time: Long,
     val latitude: Double = 0.0,
     val longitude: Double = 0.0,
     val altitude: Double = 0.0,
@@ -34,15 +34,38 @@ data class Position(
     val battery: Double = 0.0,
     val charging: Boolean = false,
     val mock: Boolean = false,
+    val alarm: String? = null,
 //    val boatBattery: Byte = 0,
 //    val boatCharging: Boolean = false,
 ) {
     companion object {
         private const val TAG = "ExampleClass"
     }
+
+    @Deprecated("Use time in epoch milliseconds", ReplaceWith("time"))
+    val date: Date
+        get() = Date(time)
+
+    @Deprecated("Use time in epoch milliseconds")
+    constructor(
+        id: Long = 0,
+        deviceId: String,
+        time: Date,
+        latitude: Double = 0.0,
+        longitude: Double = 0.0,
+        altitude: Double = 0.0,
+        speed: Double = 0.0,
+        course: Double = 0.0,
+        accuracy: Double = 0.0,
+        battery: Double = 0.0,
+        charging: Boolean = false,
+        mock: Boolean = false,
+        alarm: String? = null,
+    ) : this(id, deviceId, time.time, latitude, longitude, altitude, speed, course, accuracy, battery, charging, mock, alarm)
+
     constructor(deviceId: String, location: Location, battery: BatteryStatus) : this(
         deviceId = deviceId,
-        time = Date(location.time.correctRollover()),
+        time = location.time.correctRollover(),
         latitude = location.latitude,
         longitude = location.longitude,
         altitude = location.altitude,
@@ -81,6 +104,6 @@ data class Position(
 private const val rolloverDate = 1554508800000L // April 6, 2019
 private const val rolloverOffset = 619315200000L // 1024 weeks
 
-private fun Long.correctRollover(): Long {
+internal fun Long.correctRollover(): Long {
     return if (this < rolloverDate) this + rolloverOffset else this
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+/**
+ * Fixed capacity FIFO of pending positions stored column by column in primitive arrays.
+ * Used when offline buffering is disabled so short outages don't lose points.
+ */
+class PositionBuffer(val capacity: Int) {
+
+    private val deviceIds = arrayOfNulls<String>(capacity)
+    private val times = LongArray(capacity)
+    private val latitudes = DoubleArray(capacity)
+    private val longitudes = DoubleArray(capacity)
+    private val altitudes = DoubleArray(capacity)
+    private val speeds = DoubleArray(capacity)
+    private val courses = DoubleArray(capacity)
+    private val accuracies = DoubleArray(capacity)
+    private val batteries = DoubleArray(capacity)
+    private val charging = BooleanArray(capacity)
+    private val mock = BooleanArray(capacity)
+
+    private var head = 0
+
+    var size = 0
+        private set
+
+    val isEmpty: Boolean
+        get() = size == 0
+
+    /**
+     * Appends a position. When the buffer is full the oldest entry is evicted and returned.
+     */
+    fun add(position: Position): Position? {
+        var evicted: Position? = null
+        if (size == capacity) {
+            evicted = peek()
+            remove()
+        }
+        val index = (head + size) % capacity
+        deviceIds[index] = position.deviceId
+        times[index] = position.time
+        latitudes[index] = position.latitude
+        longitudes[index] = position.longitude
+        altitudes[index] = position.altitude
+        speeds[index] = position.speed
+        courses[index] = position.course
+        accuracies[index] = position.accuracy
+        batteries[index] = position.battery
+        charging[index] = position.charging
+        mock[index] = position.mock
+        size += 1
+        return evicted
+    }
+
+    fun peek(): Position? {
+        return if (size > 0) get(head) else null
+    }
+
+    fun remove() {
+        if (size > 0) {
+            deviceIds[head] = null
+            head = (head + 1) % capacity
+            size -= 1
+        }
+    }
+
+    fun drain(): List<Position> {
+        val result = ArrayList<Position>(size)
+        while (size > 0) {
+            result.add(get(head))
+            remove()
+        }
+        return result
+    }
+
+    private fun get(index: Int): Position {
+        return Position(
+            deviceId = deviceIds[index]!!,
+            time = times[index],
+            latitude = latitudes[index],
+            longitude = longitudes[index],
+            altitude = altitudes[index],
+            speed = speeds[index],
+            course = courses[index],
+            accuracy = accuracies[index],
+            battery = batteries[index],
+            charging = charging[index],
+            mock = mock[index],
+        )
+    }
+
+}
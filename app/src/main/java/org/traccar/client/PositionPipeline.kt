@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.channels.onFailure
+import kotlinx.coroutines.channels.produceIn
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import org.traccar.client.PositionProvider.PositionListener
+import kotlin.math.abs
+
+//
+// Intake of the tracking pipeline as composable Flow stages. TrackingController collects
+//
+// positionFlow { PositionProviderFactory.create(context, it) }   fix
+//     .valid()                                                  filter
+//     .buffer(FIX_BUFFER)                                       buffer
+//     .batch(WRITE_BATCH)                                       batch
+//     .collect { deliver(it) }                                  send
+//
+// on its event loop, where deliver stores or holds the positions and the read chain sends and
+// acknowledges them. Buffers between stages are bounded, a slow loop makes fixes wait in them
+// instead of growing memory.
+//
+
+private const val TAG = "PositionPipeline"
+
+/**
+ * Fixes from the provider created by [create], adapting its [PositionListener] callbacks.
+ * Updates run on the main looper while the flow is collected and stop when it is cancelled.
+ * Fixes that find the buffer full are dropped and counted.
+ */
+fun positionFlow(create: (PositionListener) -> PositionProvider): Flow<List<Position>> = callbackFlow {
+    val provider = create(object : PositionListener {
+        override fun onPositionUpdate(position: Position) {
+            offer(listOf(position))
+        }
+
+        override fun onPositionUpdates(positions: List<Position>) {
+            offer(positions)
+        }
+
+        override fun onPositionError(error: Throwable) {
+            Log.w(TAG, error)
+        }
+
+        private fun offer(positions: List<Position>) {
+            trySend(positions).onFailure {
+                Metrics.fixDropped.add(positions.size.toLong())
+                Log.w(TAG, "fix dropped")
+            }
+        }
+    })
+    try {
+        provider.startUpdates()
+    } catch (e: SecurityException) {
+        Log.w(TAG, e)
+    }
+    awaitClose {
+        try {
+            provider.stopUpdates()
+        } catch (e: SecurityException) {
+            Log.w(TAG, e)
+        }
+    }
+}.flowOn(Dispatchers.Main)
+
+private fun isValid(position: Position): Boolean {
+    return position.latitude.isFinite() && abs(position.latitude) <= 90
+            && position.longitude.isFinite() && abs(position.longitude) <= 180
+}
+
+/**
+ * Drops fixes without usable coordinates, which the server would reject anyway.
+ */
+fun Flow<List<Position>>.valid(): Flow<List<Position>> = map { positions ->
+    positions.filter { position ->
+        isValid(position).also { valid ->
+            if (!valid) {
+                Metrics.fixIgnored.increment()
+            }
+        }
+    }
+}.filter { it.isNotEmpty() }
+
+/**
+ * Merges fixes that are already waiting into one list of about [maxSize] positions, so a burst
+ * is written in one transaction. Never waits for more fixes, so it adds no delivery latency.
+ */
+fun Flow<List<Position>>.batch(maxSize: Int): Flow<List<Position>> = flow {
+    coroutineScope {
+        val upstream = this@batch.produceIn(this)
+        for (first in upstream) {
+            val batch = ArrayList(first)
+            while (batch.size < maxSize) {
+                val next = upstream.tryReceive().getOrNull() ?: break
+                batch.addAll(next)
+            }
+            emit(batch)
+        }
+    }
+}
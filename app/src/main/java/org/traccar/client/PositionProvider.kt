@@ -16,13 +16,9 @@
 package org.traccar.client
 
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import android.content.SharedPreferences
 import android.location.Location
-import android.os.BatteryManager
 import androidx.preference.PreferenceManager
-import android.util.Log
 import kotlin.math.abs
 
 abstract class PositionProvider(
@@ -33,6 +29,9 @@ abstract class PositionProvider(
     interface PositionListener {
         fun onPositionUpdate(position: Position)
         fun onPositionError(error: Throwable)
+        fun onPositionUpdates(positions: List<Position>) {
+            positions.forEach { onPositionUpdate(it) }
+        }
     }
 
     protected var preferences: SharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
@@ -40,6 +39,7 @@ abstract class PositionProvider(
     protected var interval = preferences.getString(MainFragment.KEY_INTERVAL, "600")!!.toLong() * 1000
     protected var distance: Double = preferences.getString(MainFragment.KEY_DISTANCE, "0")!!.toInt().toDouble()
     protected var angle: Double = preferences.getString(MainFragment.KEY_ANGLE, "0")!!.toInt().toDouble()
+    protected var batchInterval = preferences.getString(MainFragment.KEY_BATCH, "0")!!.toLong() * 1000
     private var lastLocation: Location? = null
 
     abstract fun startUpdates()
@@ -47,32 +47,55 @@ abstract class PositionProvider(
     abstract fun requestSingleLocation()
 
     protected fun processLocation(location: Location?) {
+        // every raw fix shows the service is alive, also when the filters below drop it
+        ServiceWatchdog.heartbeat()
+        if (location != null && accept(location)) {
+            Logger.i(TAG) { "location new" }
+            Metrics.fixAccepted.increment()
+            listener.onPositionUpdate(Position(deviceId, location, getBatteryStatus(context)))
+        } else {
+            Logger.i(TAG) { if (location != null) "location ignored" else "location nil" }
+        }
+    }
+
+    protected fun processLocations(locations: List<Location>) {
+        if (locations.size == 1) {
+            processLocation(locations[0])
+            return
+        }
+        ServiceWatchdog.heartbeat()
+        var battery: BatteryStatus? = null
+        val positions = ArrayList<Position>(locations.size)
+        for (location in locations) {
+            if (accept(location)) {
+                if (battery == null) {
+                    battery = getBatteryStatus(context)
+                }
+                positions.add(Position(deviceId, location, battery))
+                Metrics.fixAccepted.increment()
+            }
+        }
+        Logger.i(TAG) { "location batch " + positions.size + "/" + locations.size }
+        if (positions.isNotEmpty()) {
+            listener.onPositionUpdates(positions)
+        }
+    }
+
+    private fun accept(location: Location): Boolean {
         val lastLocation = this.lastLocation
-        if (location != null &&
-            (lastLocation == null || location.time - lastLocation.time >= interval || distance > 0
+        if (lastLocation == null || location.time - lastLocation.time >= interval || distance > 0
                     && location.distanceTo(lastLocation) >= distance || angle > 0
-                    && abs(location.bearing - lastLocation.bearing) >= angle)
+                    && abs(location.bearing - lastLocation.bearing) >= angle
         ) {
-            Log.i(TAG, "location new")
             this.lastLocation = location
-            listener.onPositionUpdate(Position(deviceId, location, getBatteryStatus(context)))
-        } else {
-            Log.i(TAG, if (location != null) "location ignored" else "location nil")
+            return true
         }
+        Metrics.fixIgnored.increment()
+        return false
     }
 
     protected fun getBatteryStatus(context: Context): BatteryStatus {
-        val batteryIntent = context.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
-        if (batteryIntent != null) {
-            val level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0)
-            val scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, 1)
-            val status = batteryIntent.getIntExtra(BatteryManager.EXTRA_STATUS, -1)
-            return BatteryStatus(
-                level = level * 100.0 / scale,
-                charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL,
-            )
-        }
-        return BatteryStatus()
+        return BatteryMonitor.getStatus(context)
     }
 
     companion object {
@@ -16,6 +16,8 @@
 package org.traccar.client
 
 import android.net.Uri
+import java.io.ByteArrayOutputStream
+import kotlin.math.roundToLong
 
 object ProtocolFormatter {
 
@@ -23,7 +25,7 @@ object ProtocolFormatter {
         val serverUrl = Uri.parse(url)
         val builder = serverUrl.buildUpon()
             .appendQueryParameter("id", position.deviceId)
-            .appendQueryParameter("timestamp", (position.time.time / 1000).toString())
+            .appendQueryParameter("timestamp", (position.time / 1000).toString())
             .appendQueryParameter("lat", position.latitude.toString())
             .appendQueryParameter("lon", position.longitude.toString())
             .appendQueryParameter("speed", position.speed.toString())
@@ -41,9 +43,88 @@ object ProtocolFormatter {
 //        if (position.boatCharging) {
 //            builder.appendQueryParameter("boatCharge", position.boatCharging.toString())
 //        }
-        if (alarm != null) {
-            builder.appendQueryParameter("alarm", alarm)
+        val positionAlarm = alarm ?: position.alarm
+        if (positionAlarm != null) {
+            builder.appendQueryParameter("alarm", positionAlarm)
         }
         return builder.build().toString()
     }
+
+    const val COMPACT_VERSION = 1
+
+    /**
+     * Encodes positions of a single device as a compact binary batch. After the version byte,
+     * the device id and the position count, every field is stored as a zigzag varint of
+     * scaled integers; time, coordinates and altitude are deltas from the previous position.
+     * Values that are not finite are written as 0 and marked with [FLAG_INVALID].
+     * Alarms are not supported and must be sent with [formatRequest].
+     *
+     * Only servers that decode this format can receive it, so it is sent to a dedicated
+     * endpoint rather than the regular OsmAnd URL.
+     */
+    fun formatCompact(positions: List<Position>): ByteArray {
+        val output = ByteArrayOutputStream(16 + positions.size * 16)
+        output.write(COMPACT_VERSION)
+        val deviceId = positions.first().deviceId.toByteArray(Charsets.UTF_8)
+        writeVarint(output, deviceId.size.toLong())
+        output.write(deviceId)
+        writeVarint(output, positions.size.toLong())
+        var time = 0L
+        var latitude = 0L
+        var longitude = 0L
+        var altitude = 0L
+        for (position in positions) {
+            val values = doubleArrayOf(
+                position.latitude * COORDINATE_SCALE,
+                position.longitude * COORDINATE_SCALE,
+                position.altitude * 10,
+                position.speed * 100,
+                position.course * 10,
+                position.accuracy * 10,
+                position.battery * 10,
+            )
+            var flags = (if (position.charging) FLAG_CHARGING else 0) or (if (position.mock) FLAG_MOCK else 0)
+            val scaled = LongArray(values.size) { index ->
+                val value = values[index]
+                if (value.isFinite()) {
+                    value.roundToLong()
+                } else {
+                    flags = flags or FLAG_INVALID
+                    0L
+                }
+            }
+            writeSigned(output, position.time - time)
+            writeSigned(output, scaled[0] - latitude)
+            writeSigned(output, scaled[1] - longitude)
+            writeSigned(output, scaled[2] - altitude)
+            for (index in 3 until scaled.size) {
+                writeSigned(output, scaled[index])
+            }
+            output.write(flags)
+            time = position.time
+            latitude = scaled[0]
+            longitude = scaled[1]
+            altitude = scaled[2]
+        }
+        return output.toByteArray()
+    }
+
+    const val FLAG_CHARGING = 1
+    const val FLAG_MOCK = 2
+    const val FLAG_INVALID = 4
+
+    private const val COORDINATE_SCALE = 10000000.0
+
+    private fun writeSigned(output: ByteArrayOutputStream, value: Long) {
+        writeVarint(output, (value shl 1) xor (value shr 63))
+    }
+
+    private fun writeVarint(output: ByteArrayOutputStream, value: Long) {
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            output.write(((remaining and 0x7F) or 0x80).toInt())
+            remaining = remaining ushr 7
+        }
+        output.write(remaining.toInt())
+    }
 }
@@ -27,7 +27,15 @@ object RequestManager {
 
     private const val TIMEOUT = 15 * 1000
 
-    fun sendRequest(request: String?): Boolean {
+    fun sendRequest(request: String?, body: ByteArray? = null): Boolean {
+        val success = Metrics.httpSend.time { sendRequestInternal(request, body) }
+        if (!success) {
+            Metrics.httpFailures.increment()
+        }
+        return success
+    }
+
+    private fun sendRequestInternal(request: String?, body: ByteArray?): Boolean {
         var inputStream: InputStream? = null
         return try {
             val url = URL(request)
@@ -35,6 +43,12 @@ object RequestManager {
             connection.readTimeout = TIMEOUT
             connection.connectTimeout = TIMEOUT
             connection.requestMethod = "POST"
+            if (body != null) {
+                connection.doOutput = true
+                connection.setFixedLengthStreamingMode(body.size)
+                connection.setRequestProperty("Content-Type", "application/octet-stream")
+                connection.outputStream.use { it.write(body) }
+            }
             connection.connect()
             inputStream = connection.inputStream
             while (inputStream.read() != -1) {}
@@ -51,17 +65,24 @@ object RequestManager {
     }
 
     fun sendRequestAsync(request: String, handler: RequestHandler) {
-        RequestAsyncTask(handler).execute(request)
+        RequestAsyncTask(handler, null).execute(request)
+    }
+
+    fun sendRequestAsync(request: String, body: ByteArray, handler: RequestHandler) {
+        RequestAsyncTask(handler, body).execute(request)
     }
 
     interface RequestHandler {
         fun onComplete(success: Boolean)
     }
 
-    private class RequestAsyncTask(private val handler: RequestHandler) : AsyncTask<String, Unit, Boolean>() {
+    private class RequestAsyncTask(
+        private val handler: RequestHandler,
+        private val body: ByteArray?,
+    ) : AsyncTask<String, Unit, Boolean>() {
 
         override fun doInBackground(vararg request: String): Boolean {
-            return sendRequest(request[0])
+            return sendRequest(request[0], body)
         }
 
         override fun onPostExecute(result: Boolean) {
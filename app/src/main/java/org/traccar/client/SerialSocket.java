@@ -63,6 +63,12 @@ class SerialSocket extends BluetoothGattCallback {
     private static final UUID BLUETOOTH_LE_TIO_CHAR_TX_CREDITS  = UUID.fromString("00000003-0000-1000-8000-008025000000"); // W
     private static final UUID BLUETOOTH_LE_TIO_CHAR_RX_CREDITS  = UUID.fromString("00000004-0000-1000-8000-008025000000"); // I
 
+    /**
+     * services handled in connectCharacteristics1, used to filter BLE scans
+     */
+    static final UUID[] SERVICE_UUIDS = {
+            BLUETOOTH_LE_CC254X_SERVICE, BLUETOOTH_LE_MICROCHIP_SERVICE, BLUETOOTH_LE_NRF_SERVICE, BLUETOOTH_LE_TIO_SERVICE };
+
     private static final int MAX_MTU = 512; // BLE standard does not limit, some BLE 4.2 devices support 251, various source say that Android has max 512
     private static final int DEFAULT_MTU = 23;
     private static final String TAG = "SerialSocket";
@@ -78,6 +84,8 @@ class SerialSocket extends BluetoothGattCallback {
     private BluetoothDevice device;
     private BluetoothGatt gatt;
     private BluetoothGattCharacteristic readCharacteristic, writeCharacteristic;
+    private UUID serviceUuid;
+    private boolean mtuAfterConnect;
 
     private boolean writePending;
     private boolean canceled;
@@ -114,7 +122,7 @@ class SerialSocket extends BluetoothGattCallback {
     }
 
     void disconnect() {
-        Log.d(TAG, "disconnect");
+        if (Logger.ENABLED) Log.d(TAG, "disconnect");
         listener = null; // ignore remaining data and errors
         device = null;
         canceled = true;
@@ -127,9 +135,9 @@ class SerialSocket extends BluetoothGattCallback {
         if(delegate != null)
             delegate.disconnect();
         if (gatt != null) {
-            Log.d(TAG, "gatt.disconnect");
+            if (Logger.ENABLED) Log.d(TAG, "gatt.disconnect");
             gatt.disconnect();
-            Log.d(TAG, "gatt.close");
+            if (Logger.ENABLED) Log.d(TAG, "gatt.close");
             try {
                 gatt.close();
             } catch (Exception ignored) {}
@@ -155,13 +163,13 @@ class SerialSocket extends BluetoothGattCallback {
         canceled = false;
         this.listener = listener;
         ContextCompat.registerReceiver(context, disconnectBroadcastReceiver, new IntentFilter(Constants.INTENT_ACTION_DISCONNECT), ContextCompat.RECEIVER_NOT_EXPORTED);
-        Log.d(TAG, "connect "+device);
+        if (Logger.ENABLED) Log.d(TAG, "connect "+device);
         context.registerReceiver(pairingBroadcastReceiver, pairingIntentFilter);
         if (Build.VERSION.SDK_INT < 23) {
-            Log.d(TAG, "connectGatt");
+            if (Logger.ENABLED) Log.d(TAG, "connectGatt");
             gatt = device.connectGatt(context, false, this);
         } else {
-            Log.d(TAG, "connectGatt,LE");
+            if (Logger.ENABLED) Log.d(TAG, "connectGatt,LE");
             gatt = device.connectGatt(context, false, this, BluetoothDevice.TRANSPORT_LE);
         }
         if (gatt == null)
@@ -178,17 +186,17 @@ class SerialSocket extends BluetoothGattCallback {
         switch (intent.getAction()) {
             case BluetoothDevice.ACTION_PAIRING_REQUEST:
                 final int pairingVariant = intent.getIntExtra(BluetoothDevice.EXTRA_PAIRING_VARIANT, -1);
-                Log.d(TAG, "pairing request " + pairingVariant);
+                if (Logger.ENABLED) Log.d(TAG, "pairing request " + pairingVariant);
                 onSerialConnectError(new IOException(context.getString(R.string.pairing_request)));
                 // pairing dialog brings app to background (onPause), but it is still partly visible (no onStop), so there is no automatic disconnect()
                 break;
             case BluetoothDevice.ACTION_BOND_STATE_CHANGED:
                 final int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, -1);
                 final int previousBondState = intent.getIntExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE, -1);
-                Log.d(TAG, "bond state " + previousBondState + "->" + bondState);
+                if (Logger.ENABLED) Log.d(TAG, "bond state " + previousBondState + "->" + bondState);
                 break;
             default:
-                Log.d(TAG, "unknown broadcast " + intent.getAction());
+                if (Logger.ENABLED) Log.d(TAG, "unknown broadcast " + intent.getAction());
                 break;
         }
     }
@@ -197,7 +205,7 @@ class SerialSocket extends BluetoothGattCallback {
     public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
         // status directly taken from gat_api.h, e.g. 133=0x85=GATT_ERROR ~= timeout
         if (newState == BluetoothProfile.STATE_CONNECTED) {
-            Log.d(TAG,"connect status "+status+", discoverServices");
+            if (Logger.ENABLED) Log.d(TAG,"connect status "+status+", discoverServices");
             if (!gatt.discoverServices())
                 onSerialConnectError(new IOException("discoverServices failed"));
         } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
@@ -206,14 +214,14 @@ class SerialSocket extends BluetoothGattCallback {
             else
                 onSerialConnectError(new IOException("gatt status " + status));
         } else {
-            Log.d(TAG, "unknown connect state "+newState+" "+status);
+            if (Logger.ENABLED) Log.d(TAG, "unknown connect state "+newState+" "+status);
         }
         // continues asynchronously in onServicesDiscovered()
     }
 
     @Override
     public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-        Log.d(TAG, "servicesDiscovered, status " + status);
+        if (Logger.ENABLED) Log.d(TAG, "servicesDiscovered, status " + status);
         if (canceled)
             return;
         connectCharacteristics1(gatt);
@@ -222,39 +230,60 @@ class SerialSocket extends BluetoothGattCallback {
     private void connectCharacteristics1(BluetoothGatt gatt) {
         boolean sync = true;
         writePending = false;
-        for (BluetoothGattService gattService : gatt.getServices()) {
-            if (gattService.getUuid().equals(BLUETOOTH_LE_CC254X_SERVICE))
-                delegate = new Cc245XDelegate();
-            if (gattService.getUuid().equals(BLUETOOTH_LE_MICROCHIP_SERVICE))
-                delegate = new MicrochipDelegate();
-            if (gattService.getUuid().equals(BLUETOOTH_LE_NRF_SERVICE))
-                delegate = new NrfDelegate();
-            if (gattService.getUuid().equals(BLUETOOTH_LE_TIO_SERVICE))
-                delegate = new TelitDelegate();
-
-            if(delegate != null) {
-                sync = delegate.connectCharacteristics(gattService);
-                break;
+        // try the service the device was last connected with before looking through all services
+        BluetoothDeviceManager.Profile profile = BluetoothDeviceManager.getProfile(gatt.getDevice().getAddress());
+        BluetoothGattService cachedService = profile != null ? gatt.getService(profile.getService()) : null;
+        if (cachedService != null && (delegate = createDelegate(cachedService.getUuid())) != null) {
+            if (Logger.ENABLED) Log.d(TAG, "cached service " + cachedService.getUuid());
+            serviceUuid = cachedService.getUuid();
+            sync = delegate.connectCharacteristics(cachedService);
+        } else {
+            for (BluetoothGattService gattService : gatt.getServices()) {
+                delegate = createDelegate(gattService.getUuid());
+                if(delegate != null) {
+                    serviceUuid = gattService.getUuid();
+                    sync = delegate.connectCharacteristics(gattService);
+                    break;
+                }
             }
         }
         if(canceled)
             return;
         if(delegate==null || readCharacteristic==null || writeCharacteristic==null) {
-            for (BluetoothGattService gattService : gatt.getServices()) {
-                Log.d(TAG, "service "+gattService.getUuid());
-                for(BluetoothGattCharacteristic characteristic : gattService.getCharacteristics())
-                    Log.d(TAG, "characteristic "+characteristic.getUuid());
+            if (Logger.ENABLED) {
+                for (BluetoothGattService gattService : gatt.getServices()) {
+                    Log.d(TAG, "service "+gattService.getUuid());
+                    for(BluetoothGattCharacteristic characteristic : gattService.getCharacteristics())
+                        Log.d(TAG, "characteristic "+characteristic.getUuid());
+                }
             }
             onSerialConnectError(new IOException("no serial profile found"));
             return;
         }
-        if(sync)
-            connectCharacteristics2(gatt);
+        if(sync) {
+            // notifications don't depend on the MTU, so enable them first and exchange the MTU
+            // while data already flows. Telit delegate keeps the original order, as its credit
+            // handshake directly follows the CCCD write
+            mtuAfterConnect = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+            connectCharacteristics3(gatt);
+        }
+    }
+
+    private DeviceDelegate createDelegate(UUID service) {
+        if (service.equals(BLUETOOTH_LE_CC254X_SERVICE))
+            return new Cc245XDelegate();
+        if (service.equals(BLUETOOTH_LE_MICROCHIP_SERVICE))
+            return new MicrochipDelegate();
+        if (service.equals(BLUETOOTH_LE_NRF_SERVICE))
+            return new NrfDelegate();
+        if (service.equals(BLUETOOTH_LE_TIO_SERVICE))
+            return new TelitDelegate();
+        return null;
     }
 
     private void connectCharacteristics2(BluetoothGatt gatt) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            Log.d(TAG, "request max MTU");
+            if (Logger.ENABLED) Log.d(TAG, "request max MTU");
             if (!gatt.requestMtu(MAX_MTU))
                 onSerialConnectError(new IOException("request MTU failed"));
             // continues asynchronously in onMtuChanged
@@ -265,12 +294,44 @@ class SerialSocket extends BluetoothGattCallback {
 
     @Override
     public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-        Log.d(TAG,"mtu size "+mtu+", status="+status);
+        if (Logger.ENABLED) Log.d(TAG,"mtu size "+mtu+", status="+status);
         if(status ==  BluetoothGatt.GATT_SUCCESS) {
             payloadSize = mtu - 3;
-            Log.d(TAG, "payload size "+payloadSize);
+            if (Logger.ENABLED) Log.d(TAG, "payload size "+payloadSize);
+        }
+        if(mtuAfterConnect) {
+            if(canceled || !connected)
+                return;
+            saveProfile(gatt);
+            writeNext(); // writes were held back during the exchange
+        } else {
+            connectCharacteristics3(gatt);
+        }
+    }
+
+    /**
+     * exchange the MTU after notifications are enabled, unless the device is known to
+     * stay at the default MTU. Writes are queued until the exchange completes
+     */
+    private void requestMtuAfterConnect(BluetoothGatt gatt) {
+        BluetoothDeviceManager.Profile profile = BluetoothDeviceManager.getProfile(gatt.getDevice().getAddress());
+        if(profile != null && profile.getService().equals(serviceUuid) && profile.getMtu() == DEFAULT_MTU) {
+            if (Logger.ENABLED) Log.d(TAG, "skip MTU request");
+            return;
+        }
+        synchronized (writeBuffer) {
+            writePending = true;
         }
-        connectCharacteristics3(gatt);
+        if (Logger.ENABLED) Log.d(TAG, "request max MTU");
+        if (!gatt.requestMtu(MAX_MTU)) {
+            if (Logger.ENABLED) Log.d(TAG, "request MTU failed, keep default");
+            writeNext();
+        }
+        // continues asynchronously in onMtuChanged
+    }
+
+    private void saveProfile(BluetoothGatt gatt) {
+        BluetoothDeviceManager.saveProfile(gatt.getDevice().getAddress(), serviceUuid, payloadSize + 3);
     }
 
     private void connectCharacteristics3(BluetoothGatt gatt) {
@@ -291,16 +352,16 @@ class SerialSocket extends BluetoothGattCallback {
         }
         int readProperties = readCharacteristic.getProperties();
         if((readProperties & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
-            Log.d(TAG, "enable read indication");
+            if (Logger.ENABLED) Log.d(TAG, "enable read indication");
             readDescriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
         }else if((readProperties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
-            Log.d(TAG, "enable read notification");
+            if (Logger.ENABLED) Log.d(TAG, "enable read notification");
             readDescriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
         } else {
             onSerialConnectError(new IOException("no indication/notification for read characteristic ("+readProperties+")"));
             return;
         }
-        Log.d(TAG,"writing read characteristic descriptor");
+        if (Logger.ENABLED) Log.d(TAG,"writing read characteristic descriptor");
         if(!gatt.writeDescriptor(readDescriptor)) {
             onSerialConnectError(new IOException("read characteristic CCCD descriptor not writable"));
         }
@@ -313,7 +374,7 @@ class SerialSocket extends BluetoothGattCallback {
         if(canceled)
             return;
         if(descriptor.getCharacteristic() == readCharacteristic) {
-            Log.d(TAG,"writing read characteristic descriptor finished, status="+status);
+            if (Logger.ENABLED) Log.d(TAG,"writing read characteristic descriptor finished, status="+status);
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 onSerialConnectError(new IOException("write descriptor failed"));
             } else {
@@ -321,7 +382,11 @@ class SerialSocket extends BluetoothGattCallback {
                 // before confirmed by this method, so receive data can be shown before device is shown as 'Connected'.
                 onSerialConnect();
                 connected = true;
-                Log.d(TAG, "connected");
+                if (Logger.ENABLED) Log.d(TAG, "connected");
+                if(mtuAfterConnect)
+                    requestMtuAfterConnect(gatt);
+                else
+                    saveProfile(gatt);
             }
         }
     }
@@ -339,7 +404,7 @@ class SerialSocket extends BluetoothGattCallback {
         if(characteristic == readCharacteristic) { // NOPMD - test object identity
             byte[] data = readCharacteristic.getValue();
             onSerialRead(data);
-            Log.d(TAG,"read, len="+data.length);
+            if (Logger.ENABLED) Log.d(TAG,"read, len="+data.length);
         }
     }
 
@@ -360,7 +425,7 @@ class SerialSocket extends BluetoothGattCallback {
                 writePending = true;
             } else {
                 writeBuffer.add(data0);
-                Log.d(TAG,"write queued, len="+data0.length);
+                if (Logger.ENABLED) Log.d(TAG,"write queued, len="+data0.length);
                 data0 = null;
             }
             if(data.length > payloadSize) {
@@ -368,7 +433,7 @@ class SerialSocket extends BluetoothGattCallback {
                     int from = i*payloadSize;
                     int to = Math.min(from+payloadSize, data.length);
                     writeBuffer.add(Arrays.copyOfRange(data, from, to));
-                    Log.d(TAG,"write queued, len="+(to-from));
+                    if (Logger.ENABLED) Log.d(TAG,"write queued, len="+(to-from));
                 }
             }
         }
@@ -377,7 +442,7 @@ class SerialSocket extends BluetoothGattCallback {
             if (!gatt.writeCharacteristic(writeCharacteristic)) {
                 onSerialIoError(new IOException("write failed"));
             } else {
-                Log.d(TAG,"write started, len="+data0.length);
+                if (Logger.ENABLED) Log.d(TAG,"write started, len="+data0.length);
             }
         }
         // continues asynchronously in onCharacteristicWrite()
@@ -395,7 +460,7 @@ class SerialSocket extends BluetoothGattCallback {
         if(canceled)
             return;
         if(characteristic == writeCharacteristic) { // NOPMD - test object identity
-            Log.d(TAG,"write finished, status="+status);
+            if (Logger.ENABLED) Log.d(TAG,"write finished, status="+status);
             writeNext();
         }
     }
@@ -416,7 +481,7 @@ class SerialSocket extends BluetoothGattCallback {
             if (!gatt.writeCharacteristic(writeCharacteristic)) {
                 onSerialIoError(new IOException("write failed"));
             } else {
-                Log.d(TAG,"write started, len="+data.length);
+                if (Logger.ENABLED) Log.d(TAG,"write started, len="+data.length);
             }
         }
     }
@@ -454,7 +519,7 @@ class SerialSocket extends BluetoothGattCallback {
     private class Cc245XDelegate extends DeviceDelegate {
         @Override
         boolean connectCharacteristics(BluetoothGattService gattService) {
-            Log.d(TAG, "service cc254x uart");
+            if (Logger.ENABLED) Log.d(TAG, "service cc254x uart");
             readCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_CC254X_CHAR_RW);
             writeCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_CC254X_CHAR_RW);
             return true;
@@ -464,7 +529,7 @@ class SerialSocket extends BluetoothGattCallback {
     private class MicrochipDelegate extends DeviceDelegate {
         @Override
         boolean connectCharacteristics(BluetoothGattService gattService) {
-            Log.d(TAG, "service microchip uart");
+            if (Logger.ENABLED) Log.d(TAG, "service microchip uart");
             readCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_MICROCHIP_CHAR_RW);
             writeCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_MICROCHIP_CHAR_W);
             if(writeCharacteristic == null)
@@ -476,7 +541,7 @@ class SerialSocket extends BluetoothGattCallback {
     private class NrfDelegate extends DeviceDelegate {
         @Override
         boolean connectCharacteristics(BluetoothGattService gattService) {
-            Log.d(TAG, "service nrf uart");
+            if (Logger.ENABLED) Log.d(TAG, "service nrf uart");
             BluetoothGattCharacteristic rw2 = gattService.getCharacteristic(BLUETOOTH_LE_NRF_CHAR_RW2);
             BluetoothGattCharacteristic rw3 = gattService.getCharacteristic(BLUETOOTH_LE_NRF_CHAR_RW3);
             if (rw2 != null && rw3 != null) {
@@ -484,7 +549,7 @@ class SerialSocket extends BluetoothGattCallback {
                 int rw3prop = rw3.getProperties();
                 boolean rw2write = (rw2prop & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0;
                 boolean rw3write = (rw3prop & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0;
-                Log.d(TAG, "characteristic properties " + rw2prop + "/" + rw3prop);
+                if (Logger.ENABLED) Log.d(TAG, "characteristic properties " + rw2prop + "/" + rw3prop);
                 if (rw2write && rw3write) {
                     onSerialConnectError(new IOException("multiple write characteristics (" + rw2prop + "/" + rw3prop + ")"));
                 } else if (rw2write) {
@@ -507,7 +572,7 @@ class SerialSocket extends BluetoothGattCallback {
 
         @Override
         boolean connectCharacteristics(BluetoothGattService gattService) {
-            Log.d(TAG, "service telit tio 2.0");
+            if (Logger.ENABLED) Log.d(TAG, "service telit tio 2.0");
             readCredits = 0;
             writeCredits = 0;
             readCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_TIO_CHAR_RX);
@@ -540,12 +605,12 @@ class SerialSocket extends BluetoothGattCallback {
                 return false;
             }
             readCreditsDescriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
-            Log.d(TAG,"writing read credits characteristic descriptor");
+            if (Logger.ENABLED) Log.d(TAG,"writing read credits characteristic descriptor");
             if (!gatt.writeDescriptor(readCreditsDescriptor)) {
                 onSerialConnectError(new IOException("read credits characteristic CCCD descriptor not writable"));
                 return false;
             }
-            Log.d(TAG, "writing read credits characteristic descriptor");
+            if (Logger.ENABLED) Log.d(TAG, "writing read credits characteristic descriptor");
             return false;
             // continues asynchronously in connectCharacteristics2
         }
@@ -553,7 +618,7 @@ class SerialSocket extends BluetoothGattCallback {
         @Override
         void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             if(descriptor.getCharacteristic() == readCreditsCharacteristic) {
-                Log.d(TAG, "writing read credits characteristic descriptor finished, status=" + status);
+                if (Logger.ENABLED) Log.d(TAG, "writing read credits characteristic descriptor finished, status=" + status);
                 if (status != BluetoothGatt.GATT_SUCCESS) {
                     onSerialConnectError(new IOException("write credits descriptor failed"));
                 } else {
@@ -561,7 +626,7 @@ class SerialSocket extends BluetoothGattCallback {
                 }
             }
             if(descriptor.getCharacteristic() == readCharacteristic) {
-                Log.d(TAG, "writing read characteristic descriptor finished, status=" + status);
+                if (Logger.ENABLED) Log.d(TAG, "writing read characteristic descriptor finished, status=" + status);
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     readCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
                     writeCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
@@ -579,16 +644,16 @@ class SerialSocket extends BluetoothGattCallback {
                 synchronized (writeBuffer) {
                     writeCredits += newCredits;
                 }
-                Log.d(TAG, "got write credits +"+newCredits+" ="+writeCredits);
+                if (Logger.ENABLED) Log.d(TAG, "got write credits +"+newCredits+" ="+writeCredits);
 
                 if (!writePending && !writeBuffer.isEmpty()) {
-                    Log.d(TAG, "resume blocked write");
+                    if (Logger.ENABLED) Log.d(TAG, "resume blocked write");
                     writeNext();
                 }
             }
             if(characteristic == readCharacteristic) { // NOPMD - test object identity
                 grantReadCredits();
-                Log.d(TAG, "read, credits=" + readCredits);
+                if (Logger.ENABLED) Log.d(TAG, "read, credits=" + readCredits);
             }
         }
 
@@ -599,10 +664,10 @@ class SerialSocket extends BluetoothGattCallback {
                     if (writeCredits > 0)
                         writeCredits -= 1;
                 }
-                Log.d(TAG, "write finished, credits=" + writeCredits);
+                if (Logger.ENABLED) Log.d(TAG, "write finished, credits=" + writeCredits);
             }
             if(characteristic == writeCreditsCharacteristic) { // NOPMD - test object identity
-                Log.d(TAG,"write credits finished, status="+status);
+                if (Logger.ENABLED) Log.d(TAG,"write credits finished, status="+status);
             }
         }
 
@@ -610,7 +675,7 @@ class SerialSocket extends BluetoothGattCallback {
         boolean canWrite() {
             if(writeCredits > 0)
                 return true;
-            Log.d(TAG, "no write credits");
+            if (Logger.ENABLED) Log.d(TAG, "no write credits");
             return false;
         }
 
@@ -629,7 +694,7 @@ class SerialSocket extends BluetoothGattCallback {
                 int newCredits = maxReadCredits - readCredits;
                 readCredits += newCredits;
                 byte[] data = new byte[] {(byte)newCredits};
-                Log.d(TAG, "grant read credits +"+newCredits+" ="+readCredits);
+                if (Logger.ENABLED) Log.d(TAG, "grant read credits +"+newCredits+" ="+readCredits);
                 writeCreditsCharacteristic.setValue(data);
                 if (!gatt.writeCharacteristic(writeCreditsCharacteristic)) {
                     if(connected)
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+import android.app.AlarmManager
+import android.app.PendingIntent
+import android.content.Context
+import android.content.Intent
+import android.os.Build
+import android.os.SystemClock
+import androidx.preference.PreferenceManager
+
+/**
+ * Restarts the tracking service only when it actually died. The service reports a heartbeat while
+ * it runs, on start commands and on every raw location callback, including fixes the distance and
+ * angle filters drop. An inexact one-shot alarm checks it and backs off while the service stays
+ * healthy.
+ * A killed process loses the heartbeat, so the next check restarts the service.
+ */
+object ServiceWatchdog {
+
+    const val ACTION_WATCHDOG = "org.traccar.action.WATCHDOG"
+
+    private val TAG = ServiceWatchdog::class.java.simpleName
+
+    private const val MIN_INTERVAL = 60 * 1000L
+    private const val MAX_INTERVAL = 30 * 60 * 1000L
+    private const val HEARTBEAT_TIMEOUT = 60 * 60 * 1000L
+
+    @Volatile
+    private var heartbeat = 0L
+
+    @Volatile
+    private var interval = MIN_INTERVAL
+
+    fun heartbeat() {
+        heartbeat = SystemClock.elapsedRealtime()
+    }
+
+    fun clearHeartbeat() {
+        heartbeat = 0
+    }
+
+    val isAlive: Boolean
+        get() = heartbeat != 0L && SystemClock.elapsedRealtime() - heartbeat < HEARTBEAT_TIMEOUT
+
+    fun start(context: Context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+            interval = MIN_INTERVAL
+            schedule(context)
+        }
+    }
+
+    fun stop(context: Context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+            alarmManager(context).cancel(createIntent(context))
+        }
+    }
+
+    fun onAlarm(context: Context) {
+        val preferences = PreferenceManager.getDefaultSharedPreferences(context)
+        if (!preferences.getBoolean(MainFragment.KEY_STATUS, false)) {
+            return
+        }
+        if (isAlive) {
+            interval = (interval * 2).coerceAtMost(MAX_INTERVAL)
+        } else {
+            Logger.i(TAG) { "service restart" }
+            interval = MIN_INTERVAL
+            WakefulBroadcastReceiver.startWakefulForegroundService(context, Intent(context, TrackingService::class.java))
+        }
+        schedule(context)
+    }
+
+    private fun schedule(context: Context) {
+        alarmManager(context).set(
+            AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + interval, createIntent(context))
+    }
+
+    private fun alarmManager(context: Context): AlarmManager {
+        return context.getSystemService(Context.ALARM_SERVICE) as AlarmManager
+    }
+
+    private fun createIntent(context: Context): PendingIntent {
+        val intent = Intent(context, AutostartReceiver::class.java)
+            .setAction(ACTION_WATCHDOG)
+            .addFlags(Intent.FLAG_RECEIVER_FOREGROUND)
+        val flags = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE
+        } else {
+            PendingIntent.FLAG_UPDATE_CURRENT
+        }
+        return PendingIntent.getBroadcast(context, 0, intent, flags)
+    }
+
+}
@@ -30,6 +30,7 @@ import androidx.core.content.pm.ShortcutInfoCompat
 import androidx.core.content.pm.ShortcutManagerCompat
 import androidx.core.graphics.drawable.IconCompat
 import androidx.preference.PreferenceManager
+import org.traccar.client.DatabaseHelper.DatabaseHandler
 import org.traccar.client.PositionProvider.PositionListener
 import org.traccar.client.ProtocolFormatter.formatRequest
 import org.traccar.client.RequestManager.RequestHandler
@@ -86,6 +87,7 @@ class ShortcutActivity : AppCompatActivity() {
                             Toast.makeText(this@ShortcutActivity, R.string.status_send_success, Toast.LENGTH_SHORT).show()
                         } else {
                             Toast.makeText(this@ShortcutActivity, R.string.status_send_fail, Toast.LENGTH_SHORT).show()
+                            bufferAlarm(position.copy(alarm = ALARM_SOS))
                         }
                     }
                 })
@@ -97,6 +99,15 @@ class ShortcutActivity : AppCompatActivity() {
         }).requestSingleLocation()
     }
 
+    private fun bufferAlarm(position: Position) {
+        val databaseHelper = DatabaseHelper(applicationContext)
+        databaseHelper.insertPositionAsync(position, object : DatabaseHandler<Unit?> {
+            override fun onComplete(success: Boolean, result: Unit?) {
+                databaseHelper.close()
+            }
+        })
+    }
+
     private fun executeAction(intent: Intent): Boolean {
         val action: String? = if (intent.hasExtra("shortcutAction")) {
             if (intent.getBooleanExtra("shortcutAction", false)) ACTION_START else ACTION_STOP
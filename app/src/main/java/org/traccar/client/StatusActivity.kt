@@ -15,30 +15,40 @@
  */
 package org.traccar.client
 
+import androidx.annotation.StringRes
+import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
-import android.widget.ArrayAdapter
+import android.content.Context
+import android.content.Intent
 import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import android.view.LayoutInflater
 import android.view.Menu
 import android.view.MenuItem
+import android.view.View
+import android.view.ViewGroup
+import android.widget.BaseAdapter
 import android.widget.ListView
+import android.widget.TextView
 import java.text.DateFormat
 import java.util.*
 
 class StatusActivity : AppCompatActivity() {
 
-    private var adapter: ArrayAdapter<String>? = null
+    private var adapter: EventAdapter? = null
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.list)
-        adapter = ArrayAdapter(this, android.R.layout.simple_list_item_1, android.R.id.text1, messages)
+        adapter = EventAdapter(this)
         val listView = findViewById<ListView>(android.R.id.list)
         listView.adapter = adapter
         adapter?.let { adapters.add(it) }
     }
 
     override fun onDestroy() {
-        adapters.remove(adapter)
+        adapter?.let { adapters.remove(it) }
         super.onDestroy()
     }
 
@@ -52,34 +62,125 @@ class StatusActivity : AppCompatActivity() {
         if (item.itemId == R.id.clear) {
             clearMessages()
             return true
+        } else if (item.itemId == R.id.metrics) {
+            showMetrics()
+            return true
         }
         return super.onOptionsItemSelected(item)
     }
 
+    private fun showMetrics() {
+        val metrics = Metrics.format()
+        AlertDialog.Builder(this)
+            .setTitle(R.string.menu_metrics)
+            .setMessage(metrics)
+            .setPositiveButton(R.string.menu_export) { _, _ ->
+                val intent = Intent(Intent.ACTION_SEND)
+                intent.type = "text/plain"
+                intent.putExtra(Intent.EXTRA_TEXT, metrics)
+                startActivity(Intent.createChooser(intent, getString(R.string.menu_export)))
+            }
+            .setNeutralButton(R.string.menu_reset) { _, _ -> Metrics.reset() }
+            .setNegativeButton(android.R.string.cancel, null)
+            .show()
+    }
+
+    /**
+     * Formats events only when they are displayed.
+     */
+    private class EventAdapter(private val context: Context) : BaseAdapter() {
+
+        private val format = DateFormat.getTimeInstance(DateFormat.MEDIUM)
+        private val date = Date()
+        private var count = size
+
+        override fun notifyDataSetChanged() {
+            count = size
+            super.notifyDataSetChanged()
+        }
+
+        override fun getCount(): Int = count
+
+        override fun getItem(position: Int): String {
+            synchronized(lock) {
+                val index = (head + position) % LIMIT
+                date.time = times[index]
+                val text = if (codes[index] != 0) context.getString(codes[index]) else args[index]
+                return format.format(date) + " - " + text
+            }
+        }
+
+        override fun getItemId(position: Int): Long = position.toLong()
+
+        override fun getView(position: Int, convertView: View?, parent: ViewGroup): View {
+            val view = convertView ?: LayoutInflater.from(context).inflate(android.R.layout.simple_list_item_1, parent, false)
+            view.findViewById<TextView>(android.R.id.text1).text = getItem(position)
+            return view
+        }
+    }
+
     companion object {
         private const val LIMIT = 20
-        private val messages = LinkedList<String>()
-        private val adapters: MutableSet<ArrayAdapter<String>> = HashSet()
+        private const val NOTIFY_DELAY = 250L
 
-        private fun notifyAdapters() {
+        private val lock = Any()
+        private val times = LongArray(LIMIT)
+        private val codes = IntArray(LIMIT)
+        private val args = arrayOfNulls<String>(LIMIT)
+        private var head = 0
+        private var size = 0
+
+        private val adapters: MutableSet<BaseAdapter> = HashSet()
+        private val handler = Handler(Looper.getMainLooper())
+        private var notifyPending = false
+
+        private val notifyTask = Runnable {
+            synchronized(lock) {
+                notifyPending = false
+            }
             for (adapter in adapters) {
                 adapter.notifyDataSetChanged()
             }
         }
 
-        fun addMessage(originalMessage: String) {
-            var message = originalMessage
-            val format = DateFormat.getTimeInstance(DateFormat.MEDIUM)
-            message = format.format(Date()) + " - " + message
-            messages.add(message)
-            while (messages.size > LIMIT) {
-                messages.removeFirst()
+        private fun notifyAdapters() {
+            synchronized(lock) {
+                if (notifyPending) {
+                    return
+                }
+                notifyPending = true
+            }
+            handler.postDelayed(notifyTask, NOTIFY_DELAY)
+        }
+
+        fun addMessage(@StringRes code: Int) {
+            addEvent(code, null)
+        }
+
+        fun addMessage(message: String) {
+            addEvent(0, message)
+        }
+
+        private fun addEvent(code: Int, arg: String?) {
+            synchronized(lock) {
+                val index = if (size < LIMIT) {
+                    (head + size++) % LIMIT
+                } else {
+                    head.also { head = (head + 1) % LIMIT }
+                }
+                times[index] = System.currentTimeMillis()
+                codes[index] = code
+                args[index] = arg
             }
             notifyAdapters()
         }
 
         fun clearMessages() {
-            messages.clear()
+            synchronized(lock) {
+                head = 0
+                size = 0
+                args.fill(null)
+            }
             notifyAdapters()
         }
     }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import org.traccar.client.RequestManager.RequestHandler
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import javax.net.ssl.HttpsURLConnection
+import javax.net.ssl.SSLPeerUnverifiedException
+import javax.net.ssl.SSLSocket
+import javax.net.ssl.SSLSocketFactory
+
+/**
+ * Sends positions over a single long-lived TCP (tcp://) or TLS (tls://) connection instead of
+ * one HTTP request per position.
+ *
+ * Each frame is a line "<sequence> <query>", where query holds the regular request parameters.
+ * The server acknowledges a frame by replying with a line containing its sequence number.
+ * Frames that were not acknowledged within [ackTimeout] or when the connection drops fail, and
+ * the connection is re-established on the next send. A half-open link is detected by the
+ * acknowledgement deadline rather than by TCP keepalive. TLS connections verify the server
+ * hostname before the first frame is written.
+ */
+class StreamTransport(url: String, private val ackTimeout: Long = ACK_TIMEOUT) {
+
+    private val uri = Uri.parse(url)
+    private val executor = ScheduledThreadPoolExecutor(1).apply {
+        executeExistingDelayedTasksAfterShutdownPolicy = false
+    }
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val pending = LinkedHashMap<Long, RequestHandler>()
+
+    private var socket: Socket? = null
+    private var output: OutputStream? = null
+    private var sequence = 0L
+
+    fun send(request: String, handler: RequestHandler) {
+        val payload = Uri.parse(request).encodedQuery ?: request
+        try {
+            executor.execute { write(payload, handler) }
+        } catch (e: RejectedExecutionException) {
+            complete(handler, false)
+        }
+    }
+
+    fun close() {
+        try {
+            executor.execute { disconnect(socket) }
+        } catch (e: RejectedExecutionException) {
+            Log.w(TAG, e)
+        }
+        executor.shutdown()
+        failPending()
+    }
+
+    private fun write(payload: String, handler: RequestHandler) {
+        val stream = try {
+            output ?: connect()
+        } catch (e: IOException) {
+            Log.w(TAG, e)
+            complete(handler, false)
+            return
+        }
+        val frameSequence = synchronized(pending) {
+            sequence += 1
+            pending[sequence] = handler
+            sequence
+        }
+        try {
+            stream.write("$frameSequence $payload\n".toByteArray(Charsets.UTF_8))
+            stream.flush()
+        } catch (e: IOException) {
+            Log.w(TAG, e)
+            disconnect(socket)
+            return
+        }
+        val socket = socket
+        try {
+            executor.schedule({ checkDeadline(socket, frameSequence) }, ackTimeout, TimeUnit.MILLISECONDS)
+        } catch (e: RejectedExecutionException) {
+            Log.w(TAG, e)
+        }
+    }
+
+    private fun checkDeadline(socket: Socket?, frameSequence: Long) {
+        val expired = synchronized(pending) { pending.containsKey(frameSequence) }
+        if (expired) {
+            Log.w(TAG, "Acknowledgement timeout")
+            disconnect(socket)
+        }
+    }
+
+    private fun connect(): OutputStream {
+        val port = if (uri.port != -1) uri.port else DEFAULT_PORT
+        val plainSocket = Socket()
+        plainSocket.tcpNoDelay = true
+        plainSocket.keepAlive = true
+        val socket = try {
+            plainSocket.connect(InetSocketAddress(uri.host, port), TIMEOUT)
+            if (uri.scheme == SCHEME_TLS) secure(plainSocket, port) else plainSocket
+        } catch (e: IOException) {
+            plainSocket.close()
+            throw e
+        }
+        this.socket = socket
+        val output = socket.getOutputStream()
+        this.output = output
+        Thread({ readAcknowledgements(socket) }, TAG).start()
+        return output
+    }
+
+    /**
+     * Layers TLS over the connected socket with the host name for SNI, then checks the
+     * certificate against the host, which SSLSocket alone does not do.
+     */
+    private fun secure(plainSocket: Socket, port: Int): Socket {
+        val host = uri.host
+        val factory = SSLSocketFactory.getDefault() as SSLSocketFactory
+        val socket = factory.createSocket(plainSocket, host, port, true) as SSLSocket
+        try {
+            socket.soTimeout = TIMEOUT
+            socket.startHandshake()
+            socket.soTimeout = 0
+            if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, socket.session)) {
+                throw SSLPeerUnverifiedException("Certificate does not match $host")
+            }
+        } catch (e: IOException) {
+            socket.close()
+            throw e
+        }
+        return socket
+    }
+
+    private fun readAcknowledgements(socket: Socket) {
+        try {
+            val reader = BufferedReader(InputStreamReader(socket.getInputStream(), Charsets.UTF_8))
+            while (true) {
+                val line = reader.readLine() ?: break
+                val acknowledged = line.trim().toLongOrNull() ?: continue
+                val completed = ArrayList<RequestHandler>()
+                synchronized(pending) {
+                    val iterator = pending.entries.iterator()
+                    while (iterator.hasNext()) {
+                        val entry = iterator.next()
+                        if (entry.key <= acknowledged) {
+                            completed.add(entry.value)
+                            iterator.remove()
+                        }
+                    }
+                }
+                for (handler in completed) {
+                    complete(handler, true)
+                }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, e)
+        }
+        try {
+            executor.execute { disconnect(socket) }
+        } catch (e: RejectedExecutionException) {
+            Log.w(TAG, e)
+        }
+    }
+
+    private fun disconnect(socket: Socket?) {
+        if (socket == null || socket !== this.socket) {
+            return
+        }
+        try {
+            socket.close()
+        } catch (e: IOException) {
+            Log.w(TAG, e)
+        }
+        this.socket = null
+        this.output = null
+        failPending()
+    }
+
+    private fun failPending() {
+        val failed = synchronized(pending) {
+            val values = pending.values.toList()
+            pending.clear()
+            values
+        }
+        for (handler in failed) {
+            complete(handler, false)
+        }
+    }
+
+    private fun complete(handler: RequestHandler, success: Boolean) {
+        mainHandler.post { handler.onComplete(success) }
+    }
+
+    companion object {
+        private val TAG = StreamTransport::class.java.simpleName
+        private const val TIMEOUT = 15 * 1000
+        private const val ACK_TIMEOUT = 30 * 1000L
+        private const val DEFAULT_PORT = 5055
+        const val SCHEME_TCP = "tcp"
+        const val SCHEME_TLS = "tls"
+
+        fun isSupported(url: String): Boolean {
+            val scheme = Uri.parse(url).scheme
+            return scheme == SCHEME_TCP || scheme == SCHEME_TLS
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package org.traccar.client;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+
+/**
+ * Terminal scrollback backed by a fixed size ring buffer of lines.
+ * Only visible lines are bound to views, and appends are rendered at most once per frame budget.
+ * Changes are staged and applied to the ring right before notifying the view, so the item count
+ * never changes behind the RecyclerView's back.
+ */
+class TerminalAdapter extends RecyclerView.Adapter<TerminalAdapter.LineHolder> {
+
+    private static final long FRAME_BUDGET_MS = 50;
+
+    static class LineHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        LineHolder(View view) {
+            super(view);
+            text = view.findViewById(R.id.text1);
+        }
+    }
+
+    private final CharSequence[] lines;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable render = this::render;
+    private final ArrayList<Runnable> pending = new ArrayList<>();
+    private RecyclerView recyclerView;
+
+    private SpannableStringBuilder partial = new SpannableStringBuilder();
+    private long firstLine = 0; // absolute number of the oldest line kept
+    private int head = 0;
+    private int size = 0;
+    private boolean renderPending = false;
+
+    TerminalAdapter(int capacity) {
+        lines = new CharSequence[capacity];
+        setHasStableIds(true);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        handler.removeCallbacks(render);
+        renderPending = false;
+        this.recyclerView = null;
+        applyPending();
+    }
+
+    /**
+     * Appends text, splitting it into lines. Color 0 keeps the default text color.
+     */
+    void append(CharSequence text, int color) {
+        stage(() -> applyAppend(text, color));
+    }
+
+    /**
+     * Removes characters from the end of the unterminated last line.
+     */
+    void deleteLast(int count) {
+        stage(() -> applyDeleteLast(count));
+    }
+
+    void clear() {
+        stage(this::applyClear);
+    }
+
+    private void stage(Runnable change) {
+        if (recyclerView == null) {
+            change.run();
+        } else {
+            pending.add(change);
+            scheduleRender();
+        }
+    }
+
+    private void applyPending() {
+        for (Runnable change : pending) {
+            change.run();
+        }
+        pending.clear();
+    }
+
+    private void applyAppend(CharSequence text, int color) {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                appendPartial(text, start, i, color);
+                pushLine();
+                start = i + 1;
+            }
+        }
+        appendPartial(text, start, text.length(), color);
+    }
+
+    private void applyDeleteLast(int count) {
+        if (partial.length() >= count) {
+            partial.delete(partial.length() - count, partial.length());
+        }
+    }
+
+    private void applyClear() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+        firstLine += size;
+        head = 0;
+        size = 0;
+        partial = new SpannableStringBuilder();
+    }
+
+    private void appendPartial(CharSequence text, int start, int end, int color) {
+        if (start < end) {
+            int offset = partial.length();
+            partial.append(text, start, end);
+            if (color != 0) {
+                partial.setSpan(new ForegroundColorSpan(color), offset, partial.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+    }
+
+    private void pushLine() {
+        if (size == lines.length) {
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+            size -= 1;
+            firstLine += 1;
+        }
+        lines[(head + size) % lines.length] = partial;
+        size += 1;
+        partial = new SpannableStringBuilder();
+    }
+
+    private void scheduleRender() {
+        if (!renderPending && recyclerView != null) {
+            renderPending = true;
+            handler.postDelayed(render, FRAME_BUDGET_MS);
+        }
+    }
+
+    private void render() {
+        renderPending = false;
+        if (recyclerView == null) {
+            return;
+        }
+        applyPending();
+        boolean atBottom = !recyclerView.canScrollVertically(1);
+        notifyDataSetChanged();
+        if (atBottom && getItemCount() > 0) {
+            recyclerView.scrollToPosition(getItemCount() - 1);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return size + (partial.length() > 0 ? 1 : 0);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return firstLine + position;
+    }
+
+    @NonNull
+    @Override
+    public LineHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.terminal_line, parent, false);
+        return new LineHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LineHolder holder, int position) {
+        holder.text.setText(position < size ? lines[(head + position) % lines.length] : partial);
+    }
+
+    static LinearLayoutManager createLayoutManager(RecyclerView recyclerView) {
+        LinearLayoutManager layoutManager = new LinearLayoutManager(recyclerView.getContext());
+        layoutManager.setStackFromEnd(true);
+        return layoutManager;
+    }
+
+}
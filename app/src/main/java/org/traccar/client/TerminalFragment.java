@@ -12,11 +12,7 @@ import android.content.ServiceConnection;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.text.Editable;
-import android.text.Spannable;
 import android.text.SpannableStringBuilder;
-import android.text.method.ScrollingMovementMethod;
-import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -29,6 +25,7 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayDeque;
 import java.util.Arrays;
@@ -37,10 +34,12 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     private enum Connected { False, Pending, True }
 
+    private static final int SCROLLBACK_LINES = 1000;
+
     private String deviceAddress;
     private SerialService service;
 
-    private TextView receiveText;
+    private TerminalAdapter receiveLines;
     private TextView sendText;
     private TextUtil.HexWatcher hexWatcher;
 
@@ -59,6 +58,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         setHasOptionsMenu(true);
         setRetainInstance(true);
         deviceAddress = getArguments().getString("device");
+        receiveLines = new TerminalAdapter(SCROLLBACK_LINES);
     }
 
     @Override
@@ -128,9 +128,9 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_terminal, container, false);
-        receiveText = view.findViewById(R.id.receive_text);                          // TextView performance decreases with number of spans
-        receiveText.setTextColor(getResources().getColor(R.color.colorRecieveText)); // set as default color to reduce number of spans
-        receiveText.setMovementMethod(ScrollingMovementMethod.getInstance());
+        RecyclerView receiveView = view.findViewById(R.id.receive_text); // lines are kept in a bounded ring buffer and only visible ones are bound
+        receiveView.setLayoutManager(TerminalAdapter.createLayoutManager(receiveView));
+        receiveView.setAdapter(receiveLines);
         sendText = view.findViewById(R.id.send_text);
         hexWatcher = new TextUtil.HexWatcher(sendText);
         hexWatcher.enable(hexEnabled);
@@ -161,7 +161,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
         if (id == R.id.clear) {
-            receiveText.setText("");
+            receiveLines.clear();
             return true;
         } else if (id == R.id.newline) {
             String[] newlineNames = getResources().getStringArray(R.array.newline_names);
@@ -235,9 +235,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                 msg = str;
                 data = (str + newline).getBytes();
             }
-            SpannableStringBuilder spn = new SpannableStringBuilder(msg + '\n');
-            spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorSendText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            receiveText.append(spn);
+            receiveLines.append(msg + '\n', getResources().getColor(R.color.colorSendText));
             service.write(data);
         } catch (Exception e) {
             onSerialIoError(e);
@@ -259,9 +257,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                         if(spn.length() >= 2) {
                             spn.delete(spn.length() - 2, spn.length());
                         } else {
-                            Editable edt = receiveText.getEditableText();
-                            if (edt != null && edt.length() >= 2)
-                                edt.delete(edt.length() - 2, edt.length());
+                            receiveLines.deleteLast(2);
                         }
                     }
                     pendingNewline = msg.charAt(msg.length() - 1) == '\r';
@@ -269,13 +265,11 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                 spn.append(TextUtil.toCaretString(msg, newline.length() != 0));
             }
         }
-        receiveText.append(spn);
+        receiveLines.append(spn, 0);
     }
 
     private void status(String str) {
-        SpannableStringBuilder spn = new SpannableStringBuilder(str + '\n');
-        spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorStatusText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        receiveText.append(spn);
+        receiveLines.append(str + '\n', getResources().getColor(R.color.colorStatusText));
     }
 
     /*
@@ -10,7 +10,7 @@ import android.widget.TextView;
 
 import androidx.annotation.ColorInt;
 
-import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 final class TextUtil {
 
@@ -19,24 +19,73 @@ final class TextUtil {
     final static String newline_crlf = "\r\n";
     final static String newline_lf = "\n";
 
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++)
+            HEX_VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    /**
+     * @return value of a hex digit or -1 if the character is not one
+     */
+    static int hexValue(char c) {
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * parse hex digits in s[begin, end) as an unsigned number, without creating substrings
+     * @return parsed value or -1 if the range is empty, too long or contains a non hex character
+     */
+    static int parseHex(final CharSequence s, int begin, int end) {
+        if (begin < 0 || end > s.length() || begin >= end || end - begin > 7)
+            return -1;
+        int value = 0;
+        for (int pos = begin; pos < end; pos++) {
+            int digit = hexValue(s.charAt(pos));
+            if (digit < 0)
+                return -1;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * decode hex digits, ignoring any other characters. A trailing single digit becomes its own byte
+     */
     static byte[] fromHexString(final CharSequence s) {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        byte b = 0;
+        return fromHexString(s, 0, s.length());
+    }
+
+    static byte[] fromHexString(final CharSequence s, int begin, int end) {
+        int digits = 0;
+        for (int pos = begin; pos < end; pos++)
+            if (hexValue(s.charAt(pos)) >= 0)
+                digits++;
+        byte[] buf = new byte[(digits + 1) / 2];
+        int index = 0;
+        int b = 0;
         int nibble = 0;
-        for(int pos = 0; pos<s.length(); pos++) {
-            if(nibble==2) {
-                buf.write(b);
+        for (int pos = begin; pos < end; pos++) {
+            int digit = hexValue(s.charAt(pos));
+            if (digit < 0)
+                continue;
+            b = (b << 4) | digit;
+            if (++nibble == 2) {
+                buf[index++] = (byte) b;
                 nibble = 0;
                 b = 0;
             }
-            int c = s.charAt(pos);
-            if(c>='0' && c<='9') { nibble++; b *= 16; b += c-'0';    }
-            if(c>='A' && c<='F') { nibble++; b *= 16; b += c-'A'+10; }
-            if(c>='a' && c<='f') { nibble++; b *= 16; b += c-'a'+10; }
         }
-        if(nibble>0)
-            buf.write(b);
-        return buf.toByteArray();
+        if (nibble > 0)
+            buf[index] = (byte) b;
+        return buf;
     }
 
     static String toHexString(final byte[] buf) {
@@ -54,21 +103,25 @@ final class TextUtil {
     }
 
     static void toHexString(StringBuilder sb, final byte[] buf, int begin, int end) {
+        sb.ensureCapacity(sb.length() + 3 * (end - begin));
         for(int pos=begin; pos<end; pos++) {
             if(sb.length()>0)
                 sb.append(' ');
-            int c;
-            c = (buf[pos]&0xff) / 16;
-            if(c >= 10) c += 'A'-10;
-            else        c += '0';
-            sb.append((char)c);
-            c = (buf[pos]&0xff) % 16;
-            if(c >= 10) c += 'A'-10;
-            else        c += '0';
-            sb.append((char)c);
+            int c = buf[pos] & 0xff;
+            sb.append(HEX_DIGITS[c >>> 4]);
+            sb.append(HEX_DIGITS[c & 0x0f]);
         }
     }
 
+    /**
+     * append bytes as ISO-8859-1 characters, avoiding an intermediate String for ASCII data
+     */
+    static void appendAscii(StringBuilder sb, final byte[] buf) {
+        sb.ensureCapacity(sb.length() + buf.length);
+        for (byte b : buf)
+            sb.append((char) (b & 0xff));
+    }
+
     /**
      * use https://en.wikipedia.org/wiki/Caret_notation to avoid invisible control characters
      */
@@ -134,11 +187,10 @@ final class TextUtil {
 
             sb.delete(0,sb.length());
             int i;
+            sb.ensureCapacity(s.length() + s.length() / 2);
             for(i=0; i<s.length(); i++) {
-                char c = s.charAt(i);
-                if(c >= '0' && c <= '9') sb.append(c);
-                if(c >= 'A' && c <= 'F') sb.append(c);
-                if(c >= 'a' && c <= 'f') sb.append((char)(c+'A'-'a'));
+                int digit = hexValue(s.charAt(i));
+                if(digit >= 0) sb.append(HEX_DIGITS[digit]);
             }
             for(i=2; i<sb.length(); i+=3)
                 sb.insert(i,' ');
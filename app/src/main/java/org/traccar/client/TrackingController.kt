@@ -16,70 +16,177 @@
 package org.traccar.client
 
 import android.content.Context
+import org.traccar.client.ProtocolFormatter.formatCompact
 import org.traccar.client.ProtocolFormatter.formatRequest
 import org.traccar.client.RequestManager.sendRequestAsync
-import org.traccar.client.PositionProvider.PositionListener
 import org.traccar.client.NetworkManager.NetworkHandler
 import android.os.Handler
-import android.os.Looper
+import android.os.HandlerThread
+import android.os.SystemClock
 import androidx.preference.PreferenceManager
 import android.util.Log
-import org.traccar.client.DatabaseHelper.DatabaseHandler
 import org.traccar.client.RequestManager.RequestHandler
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.launch
+import kotlin.coroutines.CoroutineContext
 
-class TrackingController(private val context: Context) : PositionListener, NetworkHandler {
+/**
+ * Runs the position pipeline on a single background event loop. Fixes arrive through the
+ * [positionFlow] pipeline collected on the loop, network changes and send results are posted to
+ * it, and database work runs directly on it, so pipeline state is only touched by one thread and
+ * nothing blocks the main thread.
+ */
+class TrackingController(private val context: Context) : NetworkHandler {
+
+    private val thread = HandlerThread(TAG).apply { start() }
+    private val handler = Handler(thread.looper)
 
-    private val handler = Handler(Looper.getMainLooper())
+    // Coroutines resume through post(), so each step holds a wake lock unit like any loop task
+    private val dispatcher = object : CoroutineDispatcher() {
+        override fun dispatch(context: CoroutineContext, block: Runnable) {
+            post { block.run() }
+        }
+    }
+    private val scope = CoroutineScope(dispatcher)
     private val preferences = PreferenceManager.getDefaultSharedPreferences(context)
-    private val positionProvider = PositionProviderFactory.create(context, this)
-    private val databaseHelper = DatabaseHelper(context)
+    private val databaseHelper = DatabaseHelper(context).apply {
+        limit = preferences.getString(MainFragment.KEY_BUFFER_LIMIT, "0")!!.toInt()
+        thinning = preferences.getString(MainFragment.KEY_BUFFER_THINNING, "0")!!.toInt()
+    }
     private val networkManager = NetworkManager(context, this)
 
     private val url: String = preferences.getString(MainFragment.KEY_URL, context.getString(R.string.settings_url_default_value))!!
+    private val deviceId: String = preferences.getString(MainFragment.KEY_DEVICE, "undefined")!!
     private val buffer: Boolean = preferences.getBoolean(MainFragment.KEY_BUFFER, true)
+    private val streamTransport = if (StreamTransport.isSupported(url)) StreamTransport(url) else null
+    private val compactUrl: String = preferences.getString(MainFragment.KEY_COMPACT_URL, "")!!
+    private val compact: Boolean = streamTransport == null && compactUrl.isNotEmpty()
+    private val memoryBuffer = PositionBuffer(
+        preferences.getString(MainFragment.KEY_MEMORY_BUFFER, DEFAULT_MEMORY_BUFFER.toString())!!.toInt().coerceAtLeast(1))
+    private val scheduler = UploadScheduler(
+        preferences.getString(MainFragment.KEY_UPLOAD_COUNT, "0")!!.toInt(),
+        preferences.getString(MainFragment.KEY_UPLOAD_AGE, "0")!!.toLong() * 1000)
 
+    // Loop state, only accessed on the loop thread
     private var isOnline = networkManager.isOnline
+    private var isRunning = true
     private var isWaiting = false
+    private var isSending = false
+    private var isFlushing = false
+    private var latestFirst = true
+    // Without buffering, rows spilled from the memory buffer (or left by the last run) are older
+    // than the ones still in memory, so they are drained before flushing
+    private var isSpilled = !buffer
+    private var retryTime = 0L
 
-    fun start() {
+    private val retryTask = Runnable {
         if (isOnline) {
-            read()
+            WakeLockScheduler.work { read() }
+        }
+    }
+
+    private val retryFlushTask = Runnable {
+        if (isOnline) {
+            WakeLockScheduler.work { flush() }
         }
-        try {
-            positionProvider.startUpdates()
-        } catch (e: SecurityException) {
-            Log.w(TAG, e)
+    }
+
+    private val uploadTask = Runnable {
+        if (isOnline) {
+            WakeLockScheduler.work { upload() }
+        }
+    }
+
+    /**
+     * Posts a work unit to the loop, keeping the CPU awake until it has run.
+     */
+    private fun post(block: () -> Unit) {
+        WakeLockScheduler.acquire()
+        val posted = handler.post {
+            try {
+                block()
+            } finally {
+                WakeLockScheduler.release()
+            }
+        }
+        if (!posted) {
+            WakeLockScheduler.release()
+        }
+    }
+
+    fun start() {
+        BatteryMonitor.start(context)
+        // Fixes posted before the database is open wait in the loop queue
+        post {
+            Metrics.startupDatabase.time { databaseHelper.writableDatabase }
+            purge()
+        }
+        scope.launch {
+            positionFlow { PositionProviderFactory.create(context, it) }
+                .valid()
+                .buffer(FIX_BUFFER)
+                .batch(WRITE_BATCH)
+                .collect { deliver(it) }
         }
         networkManager.start()
     }
 
     fun stop() {
         networkManager.stop()
-        try {
-            positionProvider.stopUpdates()
-        } catch (e: SecurityException) {
-            Log.w(TAG, e)
+        // stops location updates on the main thread
+        scope.cancel()
+        post {
+            isRunning = false
+            handler.removeCallbacks(retryTask)
+            handler.removeCallbacks(retryFlushTask)
+            handler.removeCallbacks(uploadTask)
+            streamTransport?.close()
+            if (!memoryBuffer.isEmpty) {
+                write(memoryBuffer.drain())
+                Metrics.memoryDepth.set(0)
+            }
+            // last task on the loop, the spill above has reached the database
+            WakeLockScheduler.stop()
         }
-        handler.removeCallbacksAndMessages(null)
+        thread.quitSafely()
+        BatteryMonitor.stop(context)
     }
 
-    override fun onPositionUpdate(position: Position) {
-        StatusActivity.addMessage(context.getString(R.string.status_location_update))
+    private fun deliver(positions: List<Position>) {
+        StatusActivity.addMessage(R.string.status_location_update)
+        if (!isRunning) {
+            return
+        }
         if (buffer) {
-            write(position)
+            if (positions.size == 1) {
+                write(positions.first())
+            } else {
+                write(positions)
+            }
         } else {
-            send(position)
+            positions.forEach { enqueue(it) }
         }
     }
 
-    override fun onPositionError(error: Throwable) {}
     override fun onNetworkUpdate(isOnline: Boolean) {
-        val message = if (isOnline) R.string.status_network_online else R.string.status_network_offline
-        StatusActivity.addMessage(context.getString(message))
-        if (!this.isOnline && isOnline) {
-            read()
+        post {
+            if (this.isOnline != isOnline) {
+                val message = if (isOnline) R.string.status_network_online else R.string.status_network_offline
+                StatusActivity.addMessage(message)
+            }
+            if (!this.isOnline && isOnline) {
+                latestFirst = true
+                read()
+                flush()
+            } else if (isOnline && (isWaiting || !buffer) && isUploadDue()) {
+                // switched to an unmetered network
+                upload()
+            }
+            this.isOnline = isOnline
         }
-        this.isOnline = isOnline
     }
 
     //
@@ -89,98 +196,357 @@ class TrackingController(private val context: Context) : PositionListener, Netwo
     //
     // read -> send -> retry -> read -> send
     //
+    // hold -> flush -> flush (without buffering)
+    //
+    // hold -> spill -> read -> send -> delete -> read -> flush (without buffering, memory buffer full)
+    //
+    // read batch -> send batch -> delete batch -> read (compact format)
+    //
+    // write -> schedule -> upload -> read (bunched uploads)
+    //
+    // fix -> filter -> buffer -> batch -> write -> read (position flow)
+    //
+    // Only one read chain is active at a time, read() is ignored while a send is in flight.
+    //
 
-    private fun log(action: String, position: Position?) {
-        var formattedAction: String = action
-        if (position != null) {
-            formattedAction +=
-                    " (id:" + position.id +
-                    " time:" + position.time.time / 1000 +
-                    " lat:" + position.latitude +
-                    " lon:" + position.longitude + ")"
+    private fun log(action: String, position: Position?, count: Int = 0) {
+        Logger.d(TAG) {
+            var formattedAction: String = action
+            if (count > 0) {
+                formattedAction += " " + count
+            }
+            if (position != null) {
+                formattedAction +=
+                        " (id:" + position.id +
+                        " time:" + position.time / 1000 +
+                        " lat:" + position.latitude +
+                        " lon:" + position.longitude + ")"
+            }
+            formattedAction
         }
-        Log.d(TAG, formattedAction)
     }
 
-    private fun write(position: Position) {
-        log("write", position)
-        databaseHelper.insertPositionAsync(position, object : DatabaseHandler<Unit?> {
-            override fun onComplete(success: Boolean, result: Unit?) {
-                if (success) {
-                    if (isOnline && isWaiting) {
-                        read()
-                        isWaiting = false
+    /**
+     * Wraps a send callback so that the result is handled on the loop, unless the controller
+     * has been stopped in the meantime. The request counts as a work unit until then.
+     */
+    private fun onLoop(block: (Boolean) -> Unit): RequestHandler {
+        WakeLockScheduler.acquire()
+        return object : RequestHandler {
+            override fun onComplete(success: Boolean) {
+                val posted = handler.post {
+                    try {
+                        if (isRunning) {
+                            block(success)
+                        }
+                    } finally {
+                        WakeLockScheduler.release()
                     }
                 }
+                if (!posted) {
+                    WakeLockScheduler.release()
+                }
             }
-        })
+        }
+    }
+
+    private fun write(position: Position) {
+        log("write", position)
+        runCatching {
+            databaseHelper.insertPosition(position)
+            databaseHelper.evictPositions()
+        }.onSuccess {
+            onWritten(listOf(position))
+        }.onFailure {
+            Log.w(TAG, it)
+        }
+    }
+
+    private fun write(positions: List<Position>) {
+        log("write", positions.last(), positions.size)
+        runCatching {
+            databaseHelper.insertPositions(positions)
+            databaseHelper.evictPositions()
+        }.onSuccess {
+            onWritten(positions)
+        }.onFailure {
+            Log.w(TAG, it)
+        }
+    }
+
+    private fun onWritten(positions: List<Position>) {
+        val now = SystemClock.elapsedRealtime()
+        positions.forEach { scheduler.add(it, now) }
+        if (isRunning && isOnline && isWaiting) {
+            if (isUploadDue()) {
+                isWaiting = false
+                read()
+            } else {
+                scheduleUpload()
+            }
+        } else if (isRunning && isOnline && retryTime != 0L && SystemClock.elapsedRealtime() >= retryTime) {
+            // loop delays only advance while the CPU is awake, so an overdue retry runs with the next fix
+            read()
+        }
+    }
+
+    private fun isUploadDue(): Boolean {
+        return scheduler.isDue(
+            SystemClock.elapsedRealtime(), BatteryMonitor.getStatus(context).charging, !networkManager.isMetered)
+    }
+
+    private fun scheduleUpload() {
+        val delay = scheduler.delay(SystemClock.elapsedRealtime())
+        handler.removeCallbacks(uploadTask)
+        if (delay >= 0) {
+            handler.postDelayed(uploadTask, delay)
+        }
+    }
+
+    private fun upload() {
+        log("upload", null)
+        if (buffer) {
+            isWaiting = false
+            read()
+        } else {
+            flush()
+        }
+    }
+
+    private fun onUploaded() {
+        scheduler.reset()
+        handler.removeCallbacks(uploadTask)
+    }
+
+    private fun purge() {
+        log("purge", null)
+        runCatching {
+            databaseHelper.truncateAcknowledged()
+            databaseHelper.deleteOtherDevices(deviceId)
+        }.onFailure { Log.w(TAG, it) }
+        if (isOnline) {
+            read()
+        }
     }
 
     private fun read() {
+        if (isSending) {
+            return
+        }
+        handler.removeCallbacks(retryTask)
+        retryTime = 0
+        // spilled rows precede the memory buffer, so they always go oldest first
+        val newestFirst = latestFirst && buffer
+        if (compact && !newestFirst) {
+            readBatch()
+            return
+        }
         log("read", null)
-        databaseHelper.selectPositionAsync(object : DatabaseHandler<Position?> {
-            override fun onComplete(success: Boolean, result: Position?) {
-                if (success) {
-                    if (result != null) {
-                        if (result.deviceId == preferences.getString(MainFragment.KEY_DEVICE, null)) {
-                            send(result)
-                        } else {
-                            delete(result)
-                        }
-                    } else {
-                        isWaiting = true
-                    }
-                } else {
-                    retry()
-                }
+        runCatching {
+            databaseHelper.selectPosition(newestFirst, deviceId)
+        }.onSuccess { result ->
+            if (result != null) {
+                send(result)
+            } else {
+                onDrained()
+            }
+        }.onFailure {
+            Log.w(TAG, it)
+            retry()
+        }
+    }
+
+    private fun readBatch() {
+        log("read batch", null)
+        runCatching {
+            databaseHelper.selectPositions(deviceId, batchSize())
+        }.onSuccess { result ->
+            if (result.isEmpty()) {
+                onDrained()
+            } else if (result.first().alarm != null) {
+                send(result.first())
+            } else {
+                sendBatch(result)
+            }
+        }.onFailure {
+            Log.w(TAG, it)
+            retry()
+        }
+    }
+
+    private fun onDrained() {
+        isWaiting = true
+        onUploaded()
+        if (isSpilled) {
+            isSpilled = false
+            flush()
+        }
+    }
+
+    /**
+     * Smaller batches on slow links, so a request fits in the connection timeout.
+     */
+    private fun batchSize(): Int {
+        val bandwidth = networkManager.upstreamBandwidth
+        return if (bandwidth in 1 until SLOW_LINK_BANDWIDTH) COMPACT_BATCH / 4 else COMPACT_BATCH
+    }
+
+    private fun sendBatch(positions: List<Position>) {
+        log("send batch", positions.last(), positions.size)
+        isSending = true
+        sendRequestAsync(compactUrl, formatCompact(positions), onLoop { success ->
+            if (success) {
+                delete(positions)
+            } else {
+                StatusActivity.addMessage(R.string.status_send_fail)
+                retry()
             }
         })
     }
 
+    private fun delete(positions: List<Position>) {
+        log("delete batch", positions.last(), positions.size)
+        runCatching {
+            databaseHelper.acknowledgePositions(positions.map { it.id })
+        }.onSuccess {
+            isSending = false
+            read()
+        }.onFailure {
+            Log.w(TAG, it)
+            retry()
+        }
+    }
+
     private fun delete(position: Position) {
         log("delete", position)
-        databaseHelper.deletePositionAsync(position.id, object : DatabaseHandler<Unit?> {
-            override fun onComplete(success: Boolean, result: Unit?) {
-                if (success) {
-                    read()
-                } else {
-                    retry()
+        runCatching {
+            databaseHelper.acknowledgePosition(position.id)
+        }.onSuccess {
+            if (position.alarm == null) {
+                // newest fix delivered, backfill the rest in order
+                latestFirst = false
+            }
+            isSending = false
+            read()
+        }.onFailure {
+            Log.w(TAG, it)
+            retry()
+        }
+    }
+
+    private fun enqueue(position: Position) {
+        scheduler.add(position, SystemClock.elapsedRealtime())
+        if (isOnline && isUploadDue()) {
+            if (memoryBuffer.isEmpty && !isSpilled) {
+                send(position)
+            } else {
+                hold(position)
+                flush()
+            }
+        } else {
+            hold(position)
+            scheduleUpload()
+        }
+    }
+
+    private fun hold(position: Position) {
+        log("hold", position)
+        val evicted = memoryBuffer.add(position)
+        Metrics.memoryDepth.set(memoryBuffer.size.toLong())
+        if (evicted != null) {
+            isSpilled = true
+            write(evicted)
+        }
+    }
+
+    private fun flush() {
+        val position = memoryBuffer.peek()
+        if (isFlushing || position == null) {
+            return
+        }
+        if (isSpilled) {
+            // flush resumes once the spilled rows are drained
+            isWaiting = false
+            read()
+            return
+        }
+        isFlushing = true
+        log("flush", position)
+        sendPosition(position, onLoop { success ->
+            isFlushing = false
+            if (success) {
+                // the head may have been spilled while it was in flight
+                if (memoryBuffer.peek() == position) {
+                    memoryBuffer.remove()
                 }
+                Metrics.memoryDepth.set(memoryBuffer.size.toLong())
+                if (memoryBuffer.isEmpty) {
+                    onUploaded()
+                }
+                flush()
+            } else {
+                StatusActivity.addMessage(R.string.status_send_fail)
+                retryFlush()
             }
         })
     }
 
     private fun send(position: Position) {
         log("send", position)
-        val request = formatRequest(url, position)
-        sendRequestAsync(request, object : RequestHandler {
-            override fun onComplete(success: Boolean) {
-                if (success) {
-                    if (buffer) {
-                        delete(position)
-                    }
+        if (position.id != 0L) {
+            isSending = true
+        }
+        sendPosition(position, onLoop { success ->
+            if (success) {
+                if (position.id != 0L) {
+                    delete(position)
+                } else if (memoryBuffer.isEmpty) {
+                    onUploaded()
+                }
+            } else {
+                StatusActivity.addMessage(R.string.status_send_fail)
+                if (position.id != 0L) {
+                    retry()
                 } else {
-                    StatusActivity.addMessage(context.getString(R.string.status_send_fail))
-                    if (buffer) {
-                        retry()
-                    }
+                    hold(position)
+                    retryFlush()
                 }
             }
         })
     }
 
+    private fun sendPosition(position: Position, handler: RequestHandler) {
+        val request = formatRequest(url, position)
+        if (streamTransport != null) {
+            streamTransport.send(request, handler)
+        } else {
+            sendRequestAsync(request, handler)
+        }
+    }
+
     private fun retry() {
         log("retry", null)
-        handler.postDelayed({
-            if (isOnline) {
-                read()
-            }
-        }, RETRY_DELAY.toLong())
+        Metrics.retries.increment()
+        isSending = false
+        retryTime = SystemClock.elapsedRealtime() + RETRY_DELAY
+        handler.removeCallbacks(retryTask)
+        handler.postDelayed(retryTask, RETRY_DELAY.toLong())
+    }
+
+    private fun retryFlush() {
+        Metrics.retries.increment()
+        handler.removeCallbacks(retryFlushTask)
+        handler.postDelayed(retryFlushTask, RETRY_DELAY.toLong())
     }
 
     companion object {
         private val TAG = TrackingController::class.java.simpleName
         private const val RETRY_DELAY = 30 * 1000
+        private const val DEFAULT_MEMORY_BUFFER = 100
+        private const val COMPACT_BATCH = 100
+        private const val SLOW_LINK_BANDWIDTH = 64 // kbps
+        private const val FIX_BUFFER = 64
+        private const val WRITE_BATCH = 100
     }
 
 }
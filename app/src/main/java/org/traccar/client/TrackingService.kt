@@ -26,8 +26,6 @@ import android.content.Intent
 import android.content.pm.PackageManager
 import android.os.Build
 import android.os.IBinder
-import android.os.PowerManager
-import android.os.PowerManager.WakeLock
 import android.util.Log
 import androidx.core.app.NotificationCompat
 import androidx.core.app.ServiceCompat
@@ -37,26 +35,25 @@ import java.lang.RuntimeException
 
 class TrackingService : Service() {
 
-    private var wakeLock: WakeLock? = null
     private var trackingController: TrackingController? = null
 
-    @SuppressLint("WakelockTimeout")
     override fun onCreate() {
         val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this)
         try {
             startForeground(NOTIFICATION_ID, createNotification(this))
             Log.i(TAG, "service create")
             sendBroadcast(Intent(ACTION_STARTED).setPackage(packageName))
-            StatusActivity.addMessage(getString(R.string.status_service_create))
+            StatusActivity.addMessage(R.string.status_service_create)
+            ServiceWatchdog.heartbeat()
+            ServiceWatchdog.start(this)
 
             if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
                 if (sharedPreferences.getBoolean(MainFragment.KEY_WAKELOCK, true)) {
-                    val powerManager = getSystemService(POWER_SERVICE) as PowerManager
-                    wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, javaClass.name)
-                    wakeLock?.acquire()
+                    WakeLockScheduler.start(this)
+                }
+                trackingController = Metrics.startupMain.time {
+                    TrackingController(this).apply { start() }
                 }
-                trackingController = TrackingController(this)
-                trackingController?.start()
             }
         } catch (e: RuntimeException) {
             Log.w(TAG, e)
@@ -71,6 +68,7 @@ class TrackingService : Service() {
 
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
         WakefulBroadcastReceiver.completeWakefulIntent(intent)
+        ServiceWatchdog.heartbeat()
         return START_STICKY
     }
 
@@ -78,11 +76,15 @@ class TrackingService : Service() {
         ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE)
         Log.i(TAG, "service destroy")
         sendBroadcast(Intent(ACTION_STOPPED).setPackage(packageName))
-        StatusActivity.addMessage(getString(R.string.status_service_destroy))
-        if (wakeLock?.isHeld == true) {
-            wakeLock?.release()
+        StatusActivity.addMessage(R.string.status_service_destroy)
+        val trackingController = trackingController
+        if (trackingController != null) {
+            // the controller stops the wake lock scheduler from its loop
+            trackingController.stop()
+        } else {
+            WakeLockScheduler.stop()
         }
-        trackingController?.stop()
+        ServiceWatchdog.clearHeartbeat()
     }
 
     companion object {
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+/**
+ * Decides when accumulated positions are uploaded, so the radio wakes up once per batch instead
+ * of once per fix. Pending positions are due when [count] of them accumulated, the oldest one is
+ * [age] milliseconds old or one of them is an alarm. While charging or on an unmetered network
+ * they are due immediately. With neither limit set every position is due right away.
+ */
+class UploadScheduler(private val count: Int, private val age: Long) {
+
+    private var pending = 0
+    private var firstTime = 0L
+    private var alarm = false
+
+    val isEnabled: Boolean
+        get() = count > 1 || age > 0
+
+    fun add(position: Position, now: Long) {
+        if (pending++ == 0) {
+            firstTime = now
+        }
+        if (position.alarm != null) {
+            alarm = true
+        }
+    }
+
+    fun isDue(now: Long, charging: Boolean, unmetered: Boolean): Boolean {
+        return !isEnabled || pending == 0 || alarm || charging || unmetered
+                || (count > 1 && pending >= count)
+                || (age > 0 && now - firstTime >= age)
+    }
+
+    /**
+     * Milliseconds until the age trigger fires, or -1 when there is nothing to wait for.
+     */
+    fun delay(now: Long): Long {
+        return if (age > 0 && pending > 0) (firstTime + age - now).coerceAtLeast(0) else -1
+    }
+
+    fun reset() {
+        pending = 0
+        alarm = false
+    }
+
+}
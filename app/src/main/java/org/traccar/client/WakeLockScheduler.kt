@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client
+
+import android.content.Context
+import android.os.PowerManager
+import android.os.SystemClock
+
+/**
+ * Holds the partial wake lock only while work units (fix processing, database work, uploads)
+ * are running instead of for the whole service lifetime. Units may overlap, the lock is released
+ * when the last one finishes. Hold time is reported through [Metrics].
+ */
+object WakeLockScheduler {
+
+    // Safety net in case a unit never finishes, every acquire() extends it
+    private const val TIMEOUT = 10 * 60 * 1000L
+
+    private var wakeLock: PowerManager.WakeLock? = null
+    private var units = 0
+    private var acquireTime = 0L
+
+    @Synchronized
+    fun start(context: Context) {
+        if (wakeLock == null) {
+            val powerManager = context.getSystemService(Context.POWER_SERVICE) as PowerManager
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, javaClass.name).apply {
+                setReferenceCounted(false)
+            }
+            if (units > 0) {
+                hold()
+            }
+        }
+    }
+
+    @Synchronized
+    fun stop() {
+        unhold()
+        wakeLock = null
+        units = 0
+    }
+
+    @Synchronized
+    fun acquire() {
+        units += 1
+        hold()
+    }
+
+    @Synchronized
+    fun release() {
+        if (units > 0 && --units == 0) {
+            unhold()
+        }
+    }
+
+    inline fun <T> work(block: () -> T): T {
+        acquire()
+        try {
+            return block()
+        } finally {
+            release()
+        }
+    }
+
+    private fun hold() {
+        val wakeLock = wakeLock ?: return
+        // Not reference counted, so this also refreshes a lock that timed out under a stuck unit
+        wakeLock.acquire(TIMEOUT)
+        if (acquireTime == 0L) {
+            acquireTime = SystemClock.elapsedRealtime()
+            Metrics.wakeLockAcquired.increment()
+        }
+    }
+
+    private fun unhold() {
+        val wakeLock = wakeLock ?: return
+        if (acquireTime != 0L) {
+            Metrics.wakeLockHeld.add(SystemClock.elapsedRealtime() - acquireTime)
+            acquireTime = 0
+        }
+        if (wakeLock.isHeld) {
+            wakeLock.release()
+        }
+    }
+
+}
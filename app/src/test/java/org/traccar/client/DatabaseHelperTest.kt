@@ -33,4 +33,96 @@ class DatabaseHelperTest {
 
     }
 
+    @Test
+    fun testBatch() {
+
+        val databaseHelper = DatabaseHelper(ApplicationProvider.getApplicationContext())
+
+        val position = Position("123456789012345", Location("gps"), BatteryStatus())
+
+        databaseHelper.insertPositions(listOf(position, position))
+
+        databaseHelper.deletePosition(databaseHelper.selectPosition()!!.id)
+        databaseHelper.deletePosition(databaseHelper.selectPosition()!!.id)
+
+        Assert.assertNull(databaseHelper.selectPosition())
+
+    }
+
+    @Test
+    fun testPriority() {
+
+        val databaseHelper = DatabaseHelper(ApplicationProvider.getApplicationContext())
+
+        databaseHelper.insertPosition(Position(deviceId = "1", time = 1000))
+        databaseHelper.insertPosition(Position(deviceId = "1", time = 2000, alarm = "sos"))
+        databaseHelper.insertPosition(Position(deviceId = "1", time = 3000))
+
+        Assert.assertEquals("sos", databaseHelper.selectPosition(true)!!.alarm)
+        databaseHelper.deletePosition(databaseHelper.selectPosition(true)!!.id)
+
+        Assert.assertEquals(3000L, databaseHelper.selectPosition(true)!!.time)
+        Assert.assertEquals(1000L, databaseHelper.selectPosition(false)!!.time)
+
+    }
+
+    @Test
+    fun testEviction() {
+
+        val databaseHelper = DatabaseHelper(ApplicationProvider.getApplicationContext())
+        databaseHelper.limit = 4
+
+        for (i in 1..6) {
+            databaseHelper.insertPosition(Position(deviceId = "1", time = i * 1000L))
+        }
+        Assert.assertEquals(2, databaseHelper.evictPositions())
+        Assert.assertEquals(3000L, databaseHelper.selectPosition()!!.time)
+
+        databaseHelper.thinning = 2
+        for (i in 7..8) {
+            databaseHelper.insertPosition(Position(deviceId = "1", time = i * 1000L))
+        }
+        Assert.assertEquals(2, databaseHelper.evictPositions())
+        Assert.assertEquals(3000L, databaseHelper.selectPosition()!!.time)
+        Assert.assertEquals(0, databaseHelper.evictPositions())
+
+    }
+
+    @Test
+    fun testDevices() {
+
+        val databaseHelper = DatabaseHelper(ApplicationProvider.getApplicationContext())
+
+        databaseHelper.insertPosition(Position(deviceId = "1", time = 1000))
+        databaseHelper.insertPosition(Position(deviceId = "2", time = 2000))
+        databaseHelper.insertPosition(Position(deviceId = "2", time = 3000))
+
+        Assert.assertEquals("2", databaseHelper.selectPosition(deviceId = "2")!!.deviceId)
+        Assert.assertEquals(1, databaseHelper.deleteOtherDevices("2"))
+        Assert.assertNull(databaseHelper.selectPosition(deviceId = "1"))
+        Assert.assertEquals(2000L, databaseHelper.selectPosition()!!.time)
+
+    }
+
+    @Test
+    fun testAcknowledge() {
+
+        val databaseHelper = DatabaseHelper(ApplicationProvider.getApplicationContext())
+
+        for (i in 1..4) {
+            databaseHelper.insertPosition(Position(deviceId = "1", time = i * 1000L))
+        }
+
+        databaseHelper.acknowledgePositions(databaseHelper.selectPositions("1", 2).map { it.id })
+        Assert.assertEquals(3000L, databaseHelper.selectPosition()!!.time)
+
+        databaseHelper.acknowledgePosition(databaseHelper.selectPosition(true)!!.id)
+        Assert.assertEquals(3000L, databaseHelper.selectPosition(true)!!.time)
+
+        databaseHelper.truncateAcknowledged()
+        databaseHelper.acknowledgePosition(databaseHelper.selectPosition()!!.id)
+        Assert.assertNull(databaseHelper.selectPosition())
+
+    }
+
 }
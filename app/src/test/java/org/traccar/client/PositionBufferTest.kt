@@ -0,0 +1,33 @@
+package org.traccar.client
+
+import org.junit.Assert
+import org.junit.Test
+
+class PositionBufferTest {
+
+    private fun position(time: Long) = Position(deviceId = "123456789012345", time = time, latitude = time.toDouble())
+
+    @Test
+    fun testOrder() {
+        val buffer = PositionBuffer(3)
+        Assert.assertNull(buffer.peek())
+        buffer.add(position(1))
+        buffer.add(position(2))
+        Assert.assertEquals(1L, buffer.peek()!!.time)
+        buffer.remove()
+        Assert.assertEquals(2L, buffer.peek()!!.time)
+        Assert.assertEquals(1, buffer.size)
+    }
+
+    @Test
+    fun testEviction() {
+        val buffer = PositionBuffer(2)
+        Assert.assertNull(buffer.add(position(1)))
+        Assert.assertNull(buffer.add(position(2)))
+        val evicted = buffer.add(position(3))
+        Assert.assertEquals(1L, evicted!!.time)
+        Assert.assertEquals(listOf(2.0, 3.0), buffer.drain().map { it.latitude })
+        Assert.assertTrue(buffer.isEmpty)
+    }
+
+}
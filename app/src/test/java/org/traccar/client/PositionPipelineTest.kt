@@ -0,0 +1,51 @@
+package org.traccar.client
+
+import android.os.Build
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@Config(sdk = [Build.VERSION_CODES.P])
+@RunWith(RobolectricTestRunner::class)
+class PositionPipelineTest {
+
+    private fun position(time: Long, latitude: Double = 0.0, longitude: Double = 0.0) =
+        Position(deviceId = "123456789012345", time = time, latitude = latitude, longitude = longitude)
+
+    private fun times(batches: List<List<Position>>) = batches.map { batch -> batch.map { it.time } }
+
+    @Test
+    fun testBatchSize() = runTest {
+        val upstream = flowOf(listOf(position(1)), listOf(position(2), position(3)), listOf(position(4)))
+        Assert.assertEquals(listOf(listOf(1L, 2L, 3L), listOf(4L)), times(upstream.batch(2).toList()))
+        Assert.assertEquals(listOf(listOf(1L, 2L, 3L, 4L)), times(upstream.batch(10).toList()))
+    }
+
+    @Test
+    fun testBatchNoWait() = runTest {
+        val batches = flow {
+            emit(listOf(position(1)))
+            delay(1000)
+            emit(listOf(position(2)))
+        }.batch(10).toList()
+        Assert.assertEquals(listOf(listOf(1L), listOf(2L)), times(batches))
+    }
+
+    @Test
+    fun testValid() = runTest {
+        val batches = flowOf(
+            listOf(position(1, latitude = Double.NaN), position(2, latitude = 59.4, longitude = 24.7)),
+            listOf(position(3, longitude = 200.0)),
+            listOf(position(4, latitude = -90.0, longitude = -180.0)),
+        ).valid().toList()
+        Assert.assertEquals(listOf(listOf(2L), listOf(4L)), times(batches))
+    }
+
+}
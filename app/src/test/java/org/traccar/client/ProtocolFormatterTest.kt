@@ -7,7 +7,9 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
+import org.traccar.client.ProtocolFormatter.formatCompact
 import org.traccar.client.ProtocolFormatter.formatRequest
+import java.io.ByteArrayInputStream
 
 @Config(sdk = [Build.VERSION_CODES.P])
 @RunWith(RobolectricTestRunner::class)
@@ -34,4 +36,101 @@ class ProtocolFormatterTest {
         Assert.assertEquals("http://localhost:5055/path?id=123456789012345&timestamp=619315200&lat=0.0&lon=0.0&speed=0.0&bearing=0.0&altitude=0.0&accuracy=0.0&batt=0.0&alarm=alert%20message", url)
     }
 
+    @Test
+    fun testFormatCompact() {
+        val positions = listOf(
+            Position(deviceId = "123456789012345", time = 1700000000000, latitude = 59.4370312, longitude = 24.7535749, altitude = 12.3, speed = 6.5, course = 270.0, accuracy = 4.5, battery = 80.0),
+            Position(deviceId = "123456789012345", time = 1700000010000, latitude = 59.4371011, longitude = 24.7531233, altitude = 12.1, speed = 6.7, course = 271.5, battery = 80.0, charging = true),
+            Position(deviceId = "123456789012345", time = 1700000020000, latitude = -33.8567844, longitude = -151.2152967, mock = true),
+        )
+        val data = formatCompact(positions)
+        val decoded = decodeCompact(data)
+        Assert.assertEquals(positions.size, decoded.size)
+        for (i in positions.indices) {
+            Assert.assertEquals(positions[i].deviceId, decoded[i].deviceId)
+            Assert.assertEquals(positions[i].time, decoded[i].time)
+            Assert.assertEquals(positions[i].latitude, decoded[i].latitude, 0.0000001)
+            Assert.assertEquals(positions[i].longitude, decoded[i].longitude, 0.0000001)
+            Assert.assertEquals(positions[i].altitude, decoded[i].altitude, 0.1)
+            Assert.assertEquals(positions[i].speed, decoded[i].speed, 0.01)
+            Assert.assertEquals(positions[i].course, decoded[i].course, 0.1)
+            Assert.assertEquals(positions[i].accuracy, decoded[i].accuracy, 0.1)
+            Assert.assertEquals(positions[i].battery, decoded[i].battery, 0.1)
+            Assert.assertEquals(positions[i].charging, decoded[i].charging)
+            Assert.assertEquals(positions[i].mock, decoded[i].mock)
+        }
+        Assert.assertTrue(data.size < 100)
+    }
+
+    @Test
+    fun testFormatCompactInvalid() {
+        val positions = listOf(
+            Position(deviceId = "123456789012345", time = 1700000000000, latitude = 59.4370312, longitude = 24.7535749, altitude = Double.NaN),
+            Position(deviceId = "123456789012345", time = 1700000010000, latitude = 59.4371011, longitude = 24.7531233, speed = Double.POSITIVE_INFINITY),
+        )
+        val data = formatCompact(positions)
+        val decoded = decodeCompact(data)
+        Assert.assertEquals(0.0, decoded[0].altitude, 0.0)
+        Assert.assertEquals(0.0, decoded[1].speed, 0.0)
+        Assert.assertEquals(positions[1].latitude, decoded[1].latitude, 0.0000001)
+        Assert.assertEquals(ProtocolFormatter.FLAG_INVALID, data[data.size - 1].toInt() and ProtocolFormatter.FLAG_INVALID)
+    }
+
+    private fun decodeCompact(data: ByteArray): List<Position> {
+        val input = ByteArrayInputStream(data)
+        Assert.assertEquals(ProtocolFormatter.COMPACT_VERSION, input.read())
+        val deviceId = ByteArray(readVarint(input).toInt())
+        input.read(deviceId)
+        val count = readVarint(input).toInt()
+        val positions = ArrayList<Position>()
+        var time = 0L
+        var latitude = 0L
+        var longitude = 0L
+        var altitude = 0L
+        for (i in 0 until count) {
+            time += readSigned(input)
+            latitude += readSigned(input)
+            longitude += readSigned(input)
+            altitude += readSigned(input)
+            val speed = readSigned(input)
+            val course = readSigned(input)
+            val accuracy = readSigned(input)
+            val battery = readSigned(input)
+            val flags = input.read()
+            positions.add(Position(
+                deviceId = String(deviceId, Charsets.UTF_8),
+                time = time,
+                latitude = latitude / 10000000.0,
+                longitude = longitude / 10000000.0,
+                altitude = altitude / 10.0,
+                speed = speed / 100.0,
+                course = course / 10.0,
+                accuracy = accuracy / 10.0,
+                battery = battery / 10.0,
+                charging = flags and ProtocolFormatter.FLAG_CHARGING != 0,
+                mock = flags and ProtocolFormatter.FLAG_MOCK != 0,
+            ))
+        }
+        Assert.assertEquals(-1, input.read())
+        return positions
+    }
+
+    private fun readSigned(input: ByteArrayInputStream): Long {
+        val value = readVarint(input)
+        return (value ushr 1) xor -(value and 1)
+    }
+
+    private fun readVarint(input: ByteArrayInputStream): Long {
+        var result = 0L
+        var shift = 0
+        while (true) {
+            val b = input.read()
+            result = result or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+        }
+    }
+
 }
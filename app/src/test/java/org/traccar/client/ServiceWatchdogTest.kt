@@ -0,0 +1,86 @@
+package org.traccar.client
+
+import android.app.AlarmManager
+import android.app.Application
+import android.content.Context
+import android.os.Build
+import android.os.Looper
+import android.os.SystemClock
+import androidx.preference.PreferenceManager
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.time.Duration
+
+@Config(sdk = [Build.VERSION_CODES.P])
+@RunWith(RobolectricTestRunner::class)
+class ServiceWatchdogTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Application>()
+    private val alarmManager = context.getSystemService(Context.ALARM_SERVICE) as AlarmManager
+
+    @Before
+    fun setUp() {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean(MainFragment.KEY_STATUS, true).commit()
+    }
+
+    @After
+    fun tearDown() {
+        ServiceWatchdog.clearHeartbeat()
+    }
+
+    private fun nextInterval(): Long {
+        return shadowOf(alarmManager).nextScheduledAlarm.triggerAtTime - SystemClock.elapsedRealtime()
+    }
+
+    @Test
+    fun testAlive() {
+        ServiceWatchdog.clearHeartbeat()
+        Assert.assertFalse(ServiceWatchdog.isAlive)
+        ServiceWatchdog.heartbeat()
+        Assert.assertTrue(ServiceWatchdog.isAlive)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMinutes(59))
+        Assert.assertTrue(ServiceWatchdog.isAlive)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMinutes(2))
+        Assert.assertFalse(ServiceWatchdog.isAlive)
+    }
+
+    @Test
+    fun testBackoff() {
+        ServiceWatchdog.heartbeat()
+        ServiceWatchdog.start(context)
+        Assert.assertEquals(60 * 1000L, nextInterval())
+        for (minutes in listOf(2L, 4L, 8L, 16L, 30L, 30L)) {
+            ServiceWatchdog.onAlarm(context)
+            Assert.assertEquals(minutes * 60 * 1000, nextInterval())
+        }
+        Assert.assertNull(shadowOf(context).nextStartedService)
+    }
+
+    @Test
+    fun testRestart() {
+        ServiceWatchdog.heartbeat()
+        ServiceWatchdog.start(context)
+        nextInterval()
+        ServiceWatchdog.onAlarm(context)
+        Assert.assertEquals(2 * 60 * 1000L, nextInterval())
+        ServiceWatchdog.clearHeartbeat()
+        ServiceWatchdog.onAlarm(context)
+        Assert.assertEquals(60 * 1000L, nextInterval())
+        Assert.assertEquals(TrackingService::class.java.name, shadowOf(context).nextStartedService.component!!.className)
+    }
+
+    @Test
+    fun testDisabled() {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean(MainFragment.KEY_STATUS, false).commit()
+        ServiceWatchdog.onAlarm(context)
+        Assert.assertNull(shadowOf(alarmManager).nextScheduledAlarm)
+    }
+
+}
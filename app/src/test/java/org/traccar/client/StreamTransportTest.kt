@@ -0,0 +1,112 @@
+package org.traccar.client
+
+import android.os.Build
+import android.os.Looper
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.traccar.client.RequestManager.RequestHandler
+import java.net.ServerSocket
+import java.net.Socket
+
+@Config(sdk = [Build.VERSION_CODES.P])
+@RunWith(RobolectricTestRunner::class)
+class StreamTransportTest {
+
+    private class Result : RequestHandler {
+        var success: Boolean? = null
+
+        override fun onComplete(success: Boolean) {
+            this.success = success
+        }
+    }
+
+    private lateinit var server: ServerSocket
+    private lateinit var transport: StreamTransport
+
+    @Before
+    fun setUp() {
+        server = ServerSocket(0)
+        server.soTimeout = 5000
+        transport = StreamTransport("tcp://127.0.0.1:${server.localPort}", 500)
+    }
+
+    @After
+    fun tearDown() {
+        transport.close()
+        server.close()
+    }
+
+    private fun await(result: Result): Boolean {
+        val deadline = System.currentTimeMillis() + 5000
+        while (result.success == null && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle()
+            Thread.sleep(10)
+        }
+        return result.success ?: throw AssertionError("Request not completed")
+    }
+
+    private fun readLine(client: Socket): String {
+        return client.getInputStream().bufferedReader().readLine()
+    }
+
+    @Test
+    fun testFraming() {
+        val first = Result()
+        transport.send("http://localhost:5055?id=1&lat=2.5", first)
+        server.accept().use { client ->
+            val reader = client.getInputStream().bufferedReader()
+            Assert.assertEquals("1 id=1&lat=2.5", reader.readLine())
+            client.getOutputStream().write("1\n".toByteArray())
+            Assert.assertTrue(await(first))
+
+            val second = Result()
+            transport.send("http://localhost:5055?id=1&lat=3.5", second)
+            Assert.assertEquals("2 id=1&lat=3.5", reader.readLine())
+            client.getOutputStream().write("2\n".toByteArray())
+            Assert.assertTrue(await(second))
+        }
+    }
+
+    @Test
+    fun testAckTimeout() {
+        val result = Result()
+        transport.send("http://localhost:5055?id=1", result)
+        server.accept().use { client ->
+            Assert.assertEquals("1 id=1", readLine(client))
+            Assert.assertFalse(await(result))
+        }
+    }
+
+    @Test
+    fun testReconnect() {
+        val first = Result()
+        transport.send("http://localhost:5055?id=1", first)
+        server.accept().use { client ->
+            Assert.assertEquals("1 id=1", readLine(client))
+        }
+        Assert.assertFalse(await(first))
+
+        val second = Result()
+        transport.send("http://localhost:5055?id=1", second)
+        server.accept().use { client ->
+            Assert.assertEquals("2 id=1", readLine(client))
+            client.getOutputStream().write("2\n".toByteArray())
+            Assert.assertTrue(await(second))
+        }
+    }
+
+    @Test
+    fun testClosed() {
+        transport.close()
+        val result = Result()
+        transport.send("http://localhost:5055?id=1", result)
+        Assert.assertFalse(await(result))
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.traccar.client
+
+import android.os.Build
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@Config(sdk = [Build.VERSION_CODES.P])
+@RunWith(RobolectricTestRunner::class)
+class TextUtilTest {
+
+    @Test
+    fun testToHexString() {
+        val data = byteArrayOf(0x00, 0x7f, 0x80.toByte(), 0xff.toByte(), 0x1a)
+        Assert.assertEquals("00 7F 80 FF 1A", TextUtil.toHexString(data))
+        Assert.assertEquals("7F 80", TextUtil.toHexString(data, 1, 3))
+        val builder = StringBuilder("AB")
+        TextUtil.toHexString(builder, byteArrayOf(0x0c))
+        Assert.assertEquals("AB 0C", builder.toString())
+    }
+
+    @Test
+    fun testFromHexString() {
+        Assert.assertArrayEquals(byteArrayOf(0x00, 0x7f, 0x80.toByte(), 0xff.toByte()), TextUtil.fromHexString("00 7f 80 FF"))
+        Assert.assertArrayEquals(byteArrayOf(0x12, 0x03), TextUtil.fromHexString("1 2 x 3"))
+        Assert.assertArrayEquals(byteArrayOf(), TextUtil.fromHexString("zz"))
+    }
+
+    @Test
+    fun testParseHex() {
+        val message = ":00A5ff1G"
+        Assert.assertEquals(0xa5, TextUtil.parseHex(message, 3, 5))
+        Assert.assertEquals(0x00a5, TextUtil.parseHex(message, 1, 5))
+        Assert.assertEquals(0xff, TextUtil.parseHex(StringBuilder(message), 5, 7))
+        Assert.assertEquals(-1, TextUtil.parseHex(message, 0, 2))
+        Assert.assertEquals(-1, TextUtil.parseHex(message, 7, 9))
+        Assert.assertEquals(-1, TextUtil.parseHex(message, 8, 10))
+    }
+
+    @Test
+    fun testAppendAscii() {
+        val builder = StringBuilder(":")
+        TextUtil.appendAscii(builder, ":0A".toByteArray(Charsets.US_ASCII))
+        Assert.assertEquals("::0A", builder.toString())
+    }
+
+    @Test
+    fun testRoundTrip() {
+        val data = ByteArray(256) { it.toByte() }
+        Assert.assertArrayEquals(data, TextUtil.fromHexString(TextUtil.toHexString(data)))
+        for (value in 0..255) {
+            val hex = "%02X".format(value)
+            Assert.assertEquals(value, TextUtil.parseHex(hex, 0, 2))
+            Assert.assertEquals(value, TextUtil.parseHex(hex.lowercase(), 0, 2))
+        }
+    }
+
+}
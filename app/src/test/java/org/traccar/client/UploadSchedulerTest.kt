@@ -0,0 +1,51 @@
+package org.traccar.client
+
+import org.junit.Assert
+import org.junit.Test
+
+class UploadSchedulerTest {
+
+    private fun position(alarm: String? = null) = Position(deviceId = "123456789012345", time = 0, alarm = alarm)
+
+    @Test
+    fun testDisabled() {
+        val scheduler = UploadScheduler(0, 0)
+        scheduler.add(position(), 0)
+        Assert.assertTrue(scheduler.isDue(0, charging = false, unmetered = false))
+        Assert.assertEquals(-1L, scheduler.delay(0))
+    }
+
+    @Test
+    fun testCount() {
+        val scheduler = UploadScheduler(3, 0)
+        scheduler.add(position(), 0)
+        scheduler.add(position(), 0)
+        Assert.assertFalse(scheduler.isDue(0, charging = false, unmetered = false))
+        scheduler.add(position(), 0)
+        Assert.assertTrue(scheduler.isDue(0, charging = false, unmetered = false))
+        scheduler.reset()
+        scheduler.add(position(), 0)
+        Assert.assertFalse(scheduler.isDue(0, charging = false, unmetered = false))
+    }
+
+    @Test
+    fun testAge() {
+        val scheduler = UploadScheduler(0, 60000)
+        scheduler.add(position(), 1000)
+        scheduler.add(position(), 20000)
+        Assert.assertEquals(31000L, scheduler.delay(30000))
+        Assert.assertFalse(scheduler.isDue(30000, charging = false, unmetered = false))
+        Assert.assertTrue(scheduler.isDue(61000, charging = false, unmetered = false))
+    }
+
+    @Test
+    fun testTriggers() {
+        val scheduler = UploadScheduler(10, 60000)
+        scheduler.add(position(), 0)
+        Assert.assertTrue(scheduler.isDue(0, charging = true, unmetered = false))
+        Assert.assertTrue(scheduler.isDue(0, charging = false, unmetered = true))
+        scheduler.add(position(alarm = "sos"), 0)
+        Assert.assertTrue(scheduler.isDue(0, charging = false, unmetered = false))
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.traccar.client
+
+import android.os.Build
+import android.os.PowerManager
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.robolectric.shadows.ShadowPowerManager
+
+@Config(sdk = [Build.VERSION_CODES.P])
+@RunWith(RobolectricTestRunner::class)
+class WakeLockSchedulerTest {
+
+    private lateinit var wakeLock: PowerManager.WakeLock
+
+    @Before
+    fun setUp() {
+        WakeLockScheduler.start(ApplicationProvider.getApplicationContext())
+        wakeLock = ShadowPowerManager.getLatestWakeLock()
+    }
+
+    @After
+    fun tearDown() {
+        WakeLockScheduler.stop()
+    }
+
+    @Test
+    fun testUnits() {
+        Assert.assertFalse(wakeLock.isHeld)
+        WakeLockScheduler.acquire()
+        WakeLockScheduler.acquire()
+        Assert.assertTrue(wakeLock.isHeld)
+        WakeLockScheduler.release()
+        Assert.assertTrue(wakeLock.isHeld)
+        WakeLockScheduler.release()
+        Assert.assertFalse(wakeLock.isHeld)
+        WakeLockScheduler.release()
+        WakeLockScheduler.work { Assert.assertTrue(wakeLock.isHeld) }
+        Assert.assertFalse(wakeLock.isHeld)
+    }
+
+    @Test
+    fun testTimeoutRefresh() {
+        WakeLockScheduler.acquire()
+        // the system drops the lock once its timeout expires
+        wakeLock.release()
+        Assert.assertFalse(wakeLock.isHeld)
+        WakeLockScheduler.acquire()
+        Assert.assertTrue(wakeLock.isHeld)
+        WakeLockScheduler.release()
+        WakeLockScheduler.release()
+        Assert.assertFalse(wakeLock.isHeld)
+    }
+
+    @Test
+    fun testStop() {
+        WakeLockScheduler.acquire()
+        WakeLockScheduler.stop()
+        Assert.assertFalse(wakeLock.isHeld)
+        WakeLockScheduler.start(ApplicationProvider.getApplicationContext())
+        Assert.assertFalse(ShadowPowerManager.getLatestWakeLock().isHeld)
+    }
+
+}